@@ -0,0 +1,139 @@
+package com.bda.controller;
+
+import android.os.Parcel;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class MotionEventParcelTest {
+    private static final float DELTA = 0.0F;
+
+    @After
+    public void tearDown() {
+        MotionEvent.setCompactParcel(false);
+    }
+
+    private static MotionEvent fullEvent() {
+        return new MotionEvent(1234L, 2,
+                new int[]{MotionEvent.AXIS_X, MotionEvent.AXIS_Y, MotionEvent.AXIS_Z,
+                        MotionEvent.AXIS_RZ, MotionEvent.AXIS_LTRIGGER, MotionEvent.AXIS_RTRIGGER},
+                new float[]{0.25F, -0.5F, 0.75F, -1.0F, 0.125F, 1.0F},
+                new int[]{MotionEvent.AXIS_X, MotionEvent.AXIS_Y},
+                new float[]{0.01F, 0.02F});
+    }
+
+    private static MotionEvent roundTrip(MotionEvent event) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            event.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return MotionEvent.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void assertSameEvent(MotionEvent expected, MotionEvent actual) {
+        assertEquals(expected.getEventTime(), actual.getEventTime());
+        assertEquals(expected.getControllerId(), actual.getControllerId());
+        assertEquals(expected.mAxisMask, actual.mAxisMask);
+        assertEquals(expected.mPrecisionMask, actual.mPrecisionMask);
+        for (int axis : MotionEvent.AXES) {
+            assertEquals(expected.getAxisValue(axis), actual.getAxisValue(axis), DELTA);
+        }
+        assertEquals(expected.getXPrecision(), actual.getXPrecision(), DELTA);
+        assertEquals(expected.getYPrecision(), actual.getYPrecision(), DELTA);
+    }
+
+    @Test
+    public void legacyRoundTrip() {
+        MotionEvent event = fullEvent();
+        assertSameEvent(event, roundTrip(event));
+    }
+
+    @Test
+    public void compactRoundTrip() {
+        MotionEvent.setCompactParcel(true);
+        MotionEvent event = fullEvent();
+        assertSameEvent(event, roundTrip(event));
+        // partial masks keep absent axes at 0
+        MotionEvent partial = new MotionEvent(5L, 1, 0.5F, -0.5F, 0.0F, 0.0F, 0.1F, 0.2F);
+        assertSameEvent(partial, roundTrip(partial));
+    }
+
+    @Test
+    public void compactIsSmallerThanLegacy() {
+        MotionEvent event = fullEvent();
+        Parcel legacy = Parcel.obtain();
+        Parcel compact = Parcel.obtain();
+        try {
+            event.writeToParcel(legacy, 0);
+            MotionEvent.setCompactParcel(true);
+            event.writeToParcel(compact, 0);
+            assertEquals(legacy.dataSize() - 36, compact.dataSize());
+        } finally {
+            legacy.recycle();
+            compact.recycle();
+        }
+    }
+
+    @Test
+    public void legacyWithFewerPrecisionsThanAxes() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeLong(99L);
+            parcel.writeInt(1);
+            parcel.writeInt(3);
+            parcel.writeInt(MotionEvent.AXIS_X);
+            parcel.writeFloat(0.5F);
+            parcel.writeInt(MotionEvent.AXIS_Y);
+            parcel.writeFloat(-0.25F);
+            parcel.writeInt(MotionEvent.AXIS_RTRIGGER);
+            parcel.writeFloat(1.0F);
+            parcel.writeInt(1);
+            parcel.writeInt(MotionEvent.AXIS_X);
+            parcel.writeFloat(0.05F);
+            // data after the event must be left for the next reader
+            parcel.writeInt(0x12345678);
+            parcel.setDataPosition(0);
+
+            MotionEvent event = MotionEvent.CREATOR.createFromParcel(parcel);
+            assertEquals(0.5F, event.getX(), DELTA);
+            assertEquals(-0.25F, event.getY(), DELTA);
+            assertEquals(1.0F, event.getAxisValue(MotionEvent.AXIS_RTRIGGER), DELTA);
+            assertEquals(0.05F, event.getXPrecision(), DELTA);
+            assertEquals(0.0F, event.getYPrecision(), DELTA);
+            assertEquals(0x12345678, parcel.readInt());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void unknownCompactVersionLeavesEventEmpty() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeLong(7L);
+            parcel.writeInt(1);
+            int header = MotionEvent.compactHeader(MotionEvent.SLOT_MASK, 0)
+                    + (1 << MotionEvent.COMPACT_VERSION_SHIFT);
+            parcel.writeInt(header);
+            parcel.writeFloat(1.0F);
+            parcel.setDataPosition(0);
+
+            MotionEvent event = MotionEvent.CREATOR.createFromParcel(parcel);
+            assertEquals(7L, event.getEventTime());
+            assertEquals(0, event.mAxisMask);
+            assertEquals(0, event.mPrecisionMask);
+            assertEquals(0.0F, event.getX(), DELTA);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -5,8 +5,10 @@ import android.os.Parcelable;
 
 class BaseEvent
         implements Parcelable {
-    final long mEventTime;
-    final int mControllerId;
+    long mEventTime;
+    int mControllerId;
+    // set on events owned by a Controller pool
+    boolean mPooled;
     public static final Parcelable.Creator<BaseEvent> CREATOR = new ParcelableCreator();
 
     public BaseEvent(long eventTime, int deviceId) {
@@ -15,6 +17,14 @@ class BaseEvent
     }
 
     BaseEvent(Parcel parcel) {
+        readBase(parcel);
+    }
+
+    // for pooled events filled by set(Parcel)
+    BaseEvent() {
+    }
+
+    final void readBase(Parcel parcel) {
         this.mEventTime = parcel.readLong();
         this.mControllerId = parcel.readInt();
     }
@@ -2,6 +2,7 @@ package com.bda.controller;
 
 public final class Constants {
     public static final int MSG_SET_ACTIVITY_EVENT = 1;
+    public static final int MSG_SET_MOTION_FORMAT = 2;
 
     public static final class ActivityEvent {
         public static final int CREATE = 1;
@@ -12,4 +13,9 @@ public final class Constants {
         public static final int PAUSE = 6;
         public static final int SERVICE_CONNECTED = 7;
     }
+
+    public static final class MotionFormat {
+        public static final int LEGACY = 0;
+        public static final int COMPACT = 1;
+    }
 }
\ No newline at end of file
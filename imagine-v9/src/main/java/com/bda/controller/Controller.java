@@ -7,6 +7,7 @@ import android.content.ServiceConnection;
 import android.content.pm.ResolveInfo;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Parcel;
 import android.os.RemoteException;
 
 import java.util.List;
@@ -69,8 +70,47 @@ public final class Controller {
     final ServiceConnection mServiceConnection = new ServiceConnection();
     int mActivityEvent = 6;
     Handler mHandler = null;
-    ControllerListener mListener = null;
+    public static final int MAX_CONTROLLERS = 4;
+    // indexed by controller id - 1
+    final ControllerListener[] mListeners = new ControllerListener[MAX_CONTROLLERS];
     ControllerMonitor mMonitor = null;
+    final ControllerSnapshot[] mSnapshots = new ControllerSnapshot[MAX_CONTROLLERS];
+    // set when the service only has the old getKeyCode(), whose key codes differ from pushed events
+    boolean mLegacyKeyCodes = false;
+    // set while the listener stub is registered, the snapshots only track pushed events then
+    volatile boolean mListenerRegistered = false;
+    static final int POOL_SIZE = 32;
+    volatile boolean mReusableEvents = false;
+    final Pool<KeyRunnable> mKeyRunnablePool = new Pool<KeyRunnable>(POOL_SIZE) {
+        KeyRunnable create() {
+            return new KeyRunnable();
+        }
+    };
+    final Pool<MotionRunnable> mMotionRunnablePool = new Pool<MotionRunnable>(POOL_SIZE) {
+        MotionRunnable create() {
+            return new MotionRunnable();
+        }
+    };
+    final Pool<StateRunnable> mStateRunnablePool = new Pool<StateRunnable>(POOL_SIZE) {
+        StateRunnable create() {
+            return new StateRunnable();
+        }
+    };
+    final Pool<KeyEvent> mKeyEventPool = new Pool<KeyEvent>(POOL_SIZE) {
+        KeyEvent create() {
+            return new KeyEvent();
+        }
+    };
+    final Pool<MotionEvent> mMotionEventPool = new Pool<MotionEvent>(POOL_SIZE) {
+        MotionEvent create() {
+            return new MotionEvent();
+        }
+    };
+    final Pool<StateEvent> mStateEventPool = new Pool<StateEvent>(POOL_SIZE) {
+        StateEvent create() {
+            return new StateEvent();
+        }
+    };
 
     public static final Controller getInstance(Context context) {
         return new Controller(context);
@@ -78,6 +118,9 @@ public final class Controller {
 
     Controller(Context context) {
         this.mContext = context;
+        for (int index = 0; index < MAX_CONTROLLERS; index++) {
+            this.mSnapshots[index] = new ControllerSnapshot();
+        }
     }
 
     public final void exit() {
@@ -91,9 +134,24 @@ public final class Controller {
     }
 
     public final float getAxisValue(int axis) {
+        return getAxisValue(CONTROLLER_ID, axis);
+    }
+
+    public final float getAxisValue(int controllerId, int axis) {
+        if (!isValidControllerId(controllerId))
+            return 0.0F;
+        ControllerSnapshot snapshot = liveSnapshot(controllerId);
+        if (snapshot != null) {
+            float value = snapshot.getAxis(axis);
+            if (!Float.isNaN(value))
+                return value;
+        }
         if (this.mService != null)
             try {
-                return this.mService.getAxisValue(1, axis);
+                float value = this.mService.getAxisValue(controllerId, axis);
+                if (snapshot != null)
+                    snapshot.putAxis(axis, value);
+                return value;
             } catch (RemoteException localRemoteException) {
             }
         return 0.0F;
@@ -109,10 +167,26 @@ public final class Controller {
     }
 
     public final int getKeyCode(int keyCode) {
+        return getKeyCode(CONTROLLER_ID, keyCode);
+    }
+
+    public final int getKeyCode(int controllerId, int keyCode) {
+        if (!isValidControllerId(controllerId))
+            return 1;
+        ControllerSnapshot snapshot = this.mLegacyKeyCodes ? null : liveSnapshot(controllerId);
+        if (snapshot != null) {
+            int action = snapshot.getKey(keyCode);
+            if (action >= 0)
+                return action;
+        }
         if (this.mService != null)
             try {
-                return this.mService.getKeyCode2(1, keyCode);
+                int action = this.mService.getKeyCode2(controllerId, keyCode);
+                if (snapshot != null)
+                    snapshot.putKey(keyCode, action);
+                return action;
             } catch (RemoteException e) {
+                this.mLegacyKeyCodes = true;
                 try {
                     switch (keyCode) {
                         case 99:
@@ -122,7 +196,7 @@ public final class Controller {
                             keyCode = 99;
                     }
 
-                    return this.mService.getKeyCode(1, keyCode);
+                    return this.mService.getKeyCode(controllerId, keyCode);
                 } catch (RemoteException localRemoteException1) {
                 }
             }
@@ -130,9 +204,24 @@ public final class Controller {
     }
 
     public final int getState(int state) {
+        return getState(CONTROLLER_ID, state);
+    }
+
+    public final int getState(int controllerId, int state) {
+        if (!isValidControllerId(controllerId))
+            return 0;
+        ControllerSnapshot snapshot = liveSnapshot(controllerId);
+        if (snapshot != null) {
+            int action = snapshot.getState(state);
+            if (action >= 0)
+                return action;
+        }
         if (this.mService != null)
             try {
-                return this.mService.getState(1, state);
+                int action = this.mService.getState(controllerId, state);
+                if (snapshot != null)
+                    snapshot.putState(state, action);
+                return action;
             } catch (RemoteException localRemoteException) {
             }
         return 0;
@@ -162,19 +251,23 @@ public final class Controller {
     }
 
     public final void onResume() {
+        // events may not have been pushed while paused
+        invalidateSnapshots();
         this.mActivityEvent = 5;
         sendMessage(1, this.mActivityEvent);
         registerListener();
     }
 
     void registerListener() {
-        if ((this.mListener != null) &&
+        if (hasListener() &&
                 (this.mService != null))
             try {
                 this.mService.registerListener2(this.mListenerStub, this.mActivityEvent);
+                this.mListenerRegistered = true;
             } catch (RemoteException e) {
                 try {
                     this.mService.registerListener(this.mListenerStub, this.mActivityEvent);
+                    this.mListenerRegistered = true;
                 } catch (RemoteException localRemoteException1) {
                 }
             }
@@ -197,13 +290,73 @@ public final class Controller {
             }
     }
 
+    /**
+     * Sets the listener for the first controller, events from other
+     * controllers are dropped.
+     */
     public final void setListener(ControllerListener listener, Handler handler) {
         unregisterListener();
-        this.mListener = listener;
+        for (int index = 0; index < MAX_CONTROLLERS; index++) {
+            this.mListeners[index] = null;
+        }
+        this.mListeners[CONTROLLER_ID - 1] = listener;
+        this.mHandler = handler;
+        registerListener();
+    }
+
+    /**
+     * Sets the listener receiving events from the given controller, from 1 to
+     * MAX_CONTROLLERS. All controllers share the most recently set handler.
+     */
+    public final void setListener(int controllerId, ControllerListener listener, Handler handler) {
+        if (!isValidControllerId(controllerId))
+            return;
+        unregisterListener();
+        this.mListeners[controllerId - 1] = listener;
         this.mHandler = handler;
         registerListener();
     }
 
+    static boolean isValidControllerId(int controllerId) {
+        return controllerId >= 1 && controllerId <= MAX_CONTROLLERS;
+    }
+
+    boolean hasListener() {
+        for (int index = 0; index < MAX_CONTROLLERS; index++) {
+            if (this.mListeners[index] != null)
+                return true;
+        }
+        return false;
+    }
+
+    ControllerListener listenerFor(int controllerId) {
+        return isValidControllerId(controllerId) ? this.mListeners[controllerId - 1] : null;
+    }
+
+    // The controller's snapshot if it's kept current by pushed events, otherwise
+    // null and polls go to the service. Events are only pushed to a registered
+    // listener while the activity is resumed.
+    ControllerSnapshot liveSnapshot(int controllerId) {
+        if (!this.mListenerRegistered || this.mActivityEvent != Constants.ActivityEvent.RESUME)
+            return null;
+        return this.mSnapshots[controllerId - 1];
+    }
+
+    void invalidateSnapshots() {
+        for (int index = 0; index < MAX_CONTROLLERS; index++) {
+            this.mSnapshots[index].invalidate();
+        }
+    }
+
+    /**
+     * When enabled, events passed to the listener are pooled objects refilled
+     * for later events once the listener returns, so the listener must copy
+     * any values it needs instead of keeping the event.
+     */
+    public final void setReusableEvents(boolean reusable) {
+        this.mReusableEvents = reusable;
+    }
+
     public final void setMonitor(ControllerMonitor monitor) {
         unregisterMonitor();
         this.mMonitor = monitor;
@@ -211,6 +364,9 @@ public final class Controller {
     }
 
     void unregisterListener() {
+        // events stop, so the snapshots would go stale
+        this.mListenerRegistered = false;
+        invalidateSnapshots();
         if (this.mService != null)
             try {
                 this.mService.unregisterListener(this.mListenerStub, this.mActivityEvent);
@@ -254,42 +410,106 @@ public final class Controller {
         IControllerListenerStub() {
         }
 
+        KeyEvent readKeyEvent(Parcel data) {
+            if (!Controller.this.mReusableEvents)
+                return super.readKeyEvent(data);
+            KeyEvent event = Controller.this.mKeyEventPool.obtain();
+            event.set(data);
+            event.mPooled = true;
+            return event;
+        }
+
+        MotionEvent readMotionEvent(Parcel data) {
+            if (!Controller.this.mReusableEvents)
+                return super.readMotionEvent(data);
+            MotionEvent event = Controller.this.mMotionEventPool.obtain();
+            event.set(data);
+            event.mPooled = true;
+            return event;
+        }
+
+        StateEvent readStateEvent(Parcel data) {
+            if (!Controller.this.mReusableEvents)
+                return super.readStateEvent(data);
+            StateEvent event = Controller.this.mStateEventPool.obtain();
+            event.set(data);
+            event.mPooled = true;
+            return event;
+        }
+
         public void onKeyEvent(KeyEvent event) throws RemoteException {
-            if ((event.getControllerId() == 1) &&
-                    (Controller.this.mListener != null)) {
-                Controller.KeyRunnable runnable = new Controller.KeyRunnable(event);
+            int id = event.getControllerId();
+            if (isValidControllerId(id))
+                Controller.this.mSnapshots[id - 1].update(event);
+            if (Controller.this.listenerFor(id) != null) {
+                Controller.KeyRunnable runnable = Controller.this.mKeyRunnablePool.obtain();
+                runnable.mEvent = event;
                 if (Controller.this.mHandler != null)
                     Controller.this.mHandler.post(runnable);
                 else
                     runnable.run();
+            } else {
+                recycleEvent(event);
             }
         }
 
         public void onMotionEvent(MotionEvent event)
                 throws RemoteException {
-            if ((event.getControllerId() == 1) &&
-                    (Controller.this.mListener != null)) {
-                Controller.MotionRunnable runnable = new Controller.MotionRunnable(event);
+            int id = event.getControllerId();
+            if (isValidControllerId(id))
+                Controller.this.mSnapshots[id - 1].update(event);
+            if (Controller.this.listenerFor(id) != null) {
+                Controller.MotionRunnable runnable = Controller.this.mMotionRunnablePool.obtain();
+                runnable.mEvent = event;
                 if (Controller.this.mHandler != null)
                     Controller.this.mHandler.post(runnable);
                 else
                     runnable.run();
+            } else {
+                recycleEvent(event);
             }
         }
 
         public void onStateEvent(StateEvent event)
                 throws RemoteException {
-            if ((event.getControllerId() == 1) &&
-                    (Controller.this.mListener != null)) {
-                Controller.StateRunnable runnable = new Controller.StateRunnable(event);
+            int id = event.getControllerId();
+            if (isValidControllerId(id)) {
+                ControllerSnapshot snapshot = Controller.this.mSnapshots[id - 1];
+                // a reconnected controller starts from a fresh input state
+                if (event.getState() == STATE_CONNECTION)
+                    snapshot.invalidateInput();
+                snapshot.update(event);
+            }
+            if (Controller.this.listenerFor(id) != null) {
+                Controller.StateRunnable runnable = Controller.this.mStateRunnablePool.obtain();
+                runnable.mEvent = event;
                 if (Controller.this.mHandler != null)
                     Controller.this.mHandler.post(runnable);
                 else
                     runnable.run();
+            } else {
+                recycleEvent(event);
             }
         }
     }
 
+    // Return a pooled event once the listener is done with it, events
+    // allocated while reuse was off are left alone
+    void recycleEvent(KeyEvent event) {
+        if (event.mPooled)
+            this.mKeyEventPool.recycle(event);
+    }
+
+    void recycleEvent(MotionEvent event) {
+        if (event.mPooled)
+            this.mMotionEventPool.recycle(event);
+    }
+
+    void recycleEvent(StateEvent event) {
+        if (event.mPooled)
+            this.mStateEventPool.recycle(event);
+    }
+
     class IControllerMonitorStub extends IControllerMonitor.Stub {
         IControllerMonitorStub() {
         }
@@ -301,28 +521,30 @@ public final class Controller {
     }
 
     class KeyRunnable implements Runnable {
-        final KeyEvent mEvent;
-
-        public KeyRunnable(KeyEvent event) {
-            this.mEvent = event;
-        }
+        KeyEvent mEvent;
 
         public void run() {
-            if (Controller.this.mListener != null)
-                Controller.this.mListener.onKeyEvent(this.mEvent);
+            KeyEvent event = this.mEvent;
+            this.mEvent = null;
+            Controller.this.mKeyRunnablePool.recycle(this);
+            ControllerListener listener = Controller.this.listenerFor(event.getControllerId());
+            if (listener != null)
+                listener.onKeyEvent(event);
+            recycleEvent(event);
         }
     }
 
     class MotionRunnable implements Runnable {
-        final MotionEvent mEvent;
-
-        public MotionRunnable(MotionEvent event) {
-            this.mEvent = event;
-        }
+        MotionEvent mEvent;
 
         public void run() {
-            if (Controller.this.mListener != null)
-                Controller.this.mListener.onMotionEvent(this.mEvent);
+            MotionEvent event = this.mEvent;
+            this.mEvent = null;
+            Controller.this.mMotionRunnablePool.recycle(this);
+            ControllerListener listener = Controller.this.listenerFor(event.getControllerId());
+            if (listener != null)
+                listener.onMotionEvent(event);
+            recycleEvent(event);
         }
     }
 
@@ -332,8 +554,13 @@ public final class Controller {
 
         public final void onServiceConnected(ComponentName className, IBinder service) {
             Controller.this.mService = IControllerService.Stub.asInterface(service);
+            Controller.this.invalidateSnapshots();
+            Controller.this.mLegacyKeyCodes = false;
             Controller.this.registerListener();
             Controller.this.registerMonitor();
+            // offer the compact MotionEvent layout, services that don't know
+            // the message keep sending the legacy one which is still read
+            Controller.this.sendMessage(Constants.MSG_SET_MOTION_FORMAT, Constants.MotionFormat.COMPACT);
             if (Controller.this.mActivityEvent == 5) {
                 Controller.this.sendMessage(1, 5);
                 Controller.this.sendMessage(1, 7);
@@ -342,19 +569,22 @@ public final class Controller {
 
         public final void onServiceDisconnected(ComponentName className) {
             Controller.this.mService = null;
+            Controller.this.mListenerRegistered = false;
+            Controller.this.invalidateSnapshots();
         }
     }
 
     class StateRunnable implements Runnable {
-        final StateEvent mEvent;
-
-        public StateRunnable(StateEvent event) {
-            this.mEvent = event;
-        }
+        StateEvent mEvent;
 
         public void run() {
-            if (Controller.this.mListener != null)
-                Controller.this.mListener.onStateEvent(this.mEvent);
+            StateEvent event = this.mEvent;
+            this.mEvent = null;
+            Controller.this.mStateRunnablePool.recycle(this);
+            ControllerListener listener = Controller.this.listenerFor(event.getControllerId());
+            if (listener != null)
+                listener.onStateEvent(event);
+            recycleEvent(event);
         }
     }
 }
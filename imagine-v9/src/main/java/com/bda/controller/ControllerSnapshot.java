@@ -0,0 +1,89 @@
+package com.bda.controller;
+
+import java.util.Arrays;
+
+// Latest key, axis and state values for one controller as seen in pushed
+// events, so polling doesn't need a binder transaction. Each value is either
+// known or missing, a missing value is fetched from the service once by the
+// caller and stored here.
+final class ControllerSnapshot {
+    static final int KEY_COUNT = 128;
+    static final int STATE_COUNT = 8;
+    private final float[] mAxis = new float[MotionEvent.SLOT_COUNT];
+    private int mAxisMask;
+    private final int[] mKeyAction = new int[KEY_COUNT];
+    private final boolean[] mKeyKnown = new boolean[KEY_COUNT];
+    private final int[] mState = new int[STATE_COUNT];
+    private int mStateMask;
+
+    synchronized void update(MotionEvent event) {
+        for (int slot = 0; slot < MotionEvent.SLOT_COUNT; slot++) {
+            if ((event.mAxisMask & (1 << slot)) != 0)
+                this.mAxis[slot] = event.mAxis[slot];
+        }
+        this.mAxisMask |= event.mAxisMask;
+    }
+
+    synchronized void update(KeyEvent event) {
+        putKey(event.mKeyCode, event.mAction);
+    }
+
+    synchronized void update(StateEvent event) {
+        putState(event.mState, event.mAction);
+    }
+
+    // Returns NaN if the axis isn't known yet
+    synchronized float getAxis(int axis) {
+        int slot = MotionEvent.axisSlot(axis);
+        if (slot < 0 || (this.mAxisMask & (1 << slot)) == 0)
+            return Float.NaN;
+        return this.mAxis[slot];
+    }
+
+    synchronized void putAxis(int axis, float value) {
+        int slot = MotionEvent.axisSlot(axis);
+        if (slot < 0)
+            return;
+        this.mAxis[slot] = value;
+        this.mAxisMask |= 1 << slot;
+    }
+
+    // Returns -1 if the key isn't known yet
+    synchronized int getKey(int keyCode) {
+        if (keyCode < 0 || keyCode >= KEY_COUNT || !this.mKeyKnown[keyCode])
+            return -1;
+        return this.mKeyAction[keyCode];
+    }
+
+    synchronized void putKey(int keyCode, int action) {
+        if (keyCode < 0 || keyCode >= KEY_COUNT)
+            return;
+        this.mKeyAction[keyCode] = action;
+        this.mKeyKnown[keyCode] = true;
+    }
+
+    // Returns -1 if the state isn't known yet
+    synchronized int getState(int state) {
+        if (state < 0 || state >= STATE_COUNT || (this.mStateMask & (1 << state)) == 0)
+            return -1;
+        return this.mState[state];
+    }
+
+    synchronized void putState(int state, int action) {
+        if (state < 0 || state >= STATE_COUNT)
+            return;
+        this.mState[state] = action;
+        this.mStateMask |= 1 << state;
+    }
+
+    // Forget key and axis values, such as when the controller reconnects
+    synchronized void invalidateInput() {
+        this.mAxisMask = 0;
+        Arrays.fill(this.mKeyKnown, false);
+    }
+
+    synchronized void invalidate() {
+        invalidateInput();
+        this.mStateMask = 0;
+    }
+}
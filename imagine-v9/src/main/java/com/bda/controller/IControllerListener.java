@@ -42,6 +42,19 @@ public abstract interface IControllerListener extends IInterface {
             return this;
         }
 
+        // Overridden to fill pooled events instead of allocating new ones
+        KeyEvent readKeyEvent(Parcel data) {
+            return KeyEvent.CREATOR.createFromParcel(data);
+        }
+
+        MotionEvent readMotionEvent(Parcel data) {
+            return MotionEvent.CREATOR.createFromParcel(data);
+        }
+
+        StateEvent readStateEvent(Parcel data) {
+            return StateEvent.CREATOR.createFromParcel(data);
+        }
+
         public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
             switch (code) {
                 case 1598968902:
@@ -51,7 +64,7 @@ public abstract interface IControllerListener extends IInterface {
                     data.enforceInterface("com.bda.controller.IControllerListener");
                     KeyEvent _arg0;
                     if (data.readInt() != 0) {
-                        _arg0 = (KeyEvent) KeyEvent.CREATOR.createFromParcel(data);
+                        _arg0 = readKeyEvent(data);
                     } else {
                         _arg0 = null;
                     }
@@ -63,7 +76,7 @@ public abstract interface IControllerListener extends IInterface {
                     data.enforceInterface("com.bda.controller.IControllerListener");
                     MotionEvent _arg0;
                     if (data.readInt() != 0) {
-                        _arg0 = (MotionEvent) MotionEvent.CREATOR.createFromParcel(data);
+                        _arg0 = readMotionEvent(data);
                     } else {
                         _arg0 = null;
                     }
@@ -75,7 +88,7 @@ public abstract interface IControllerListener extends IInterface {
                     data.enforceInterface("com.bda.controller.IControllerListener");
                     StateEvent _arg0;
                     if (data.readInt() != 0) {
-                        _arg0 = (StateEvent) StateEvent.CREATOR.createFromParcel(data);
+                        _arg0 = readStateEvent(data);
                     } else {
                         _arg0 = null;
                     }
@@ -24,8 +24,8 @@ public final class KeyEvent extends BaseEvent
     public static final int KEYCODE_BUTTON_SELECT = 109;
     public static final int ACTION_DOWN = 0;
     public static final int ACTION_UP = 1;
-    final int mKeyCode;
-    final int mAction;
+    int mKeyCode;
+    int mAction;
     public static final Parcelable.Creator<KeyEvent> CREATOR = new ParcelableCreator();
 
     public KeyEvent(long eventTime, int deviceId, int keyCode, int action) {
@@ -40,6 +40,16 @@ public final class KeyEvent extends BaseEvent
         this.mAction = parcel.readInt();
     }
 
+    KeyEvent() {
+    }
+
+    // Refill a pooled event in place
+    final void set(Parcel parcel) {
+        readBase(parcel);
+        this.mKeyCode = parcel.readInt();
+        this.mAction = parcel.readInt();
+    }
+
     public int describeContents() {
         return 0;
     }
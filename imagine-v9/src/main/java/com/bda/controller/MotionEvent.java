@@ -2,7 +2,8 @@ package com.bda.controller;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.SparseArray;
+
+import java.util.Arrays;
 
 public final class MotionEvent extends BaseEvent
         implements Parcelable {
@@ -13,61 +14,143 @@ public final class MotionEvent extends BaseEvent
     public static final int AXIS_LTRIGGER = 17;
     public static final int AXIS_RTRIGGER = 18;
     public static final Parcelable.Creator<MotionEvent> CREATOR = new ParcelableCreator();
-    final SparseArray<Float> mAxis;
-    final SparseArray<Float> mPrecision;
+    // axes the controller reports, in ascending order, each with a fixed slot
+    static final int[] AXES = {AXIS_X, AXIS_Y, AXIS_Z, AXIS_RZ, AXIS_LTRIGGER, AXIS_RTRIGGER};
+    static final int SLOT_COUNT = AXES.length;
+    final float[] mAxis = new float[SLOT_COUNT];
+    final float[] mPrecision = new float[SLOT_COUNT];
+    static final int SLOT_MASK = (1 << SLOT_COUNT) - 1;
+    // Compact parcel layout: a header int with the sign bit set, which a legacy
+    // axis count never has, holding the layout version and the axis and
+    // precision slot masks, followed by the present axis values then the present
+    // precision values as packed floats in slot order. The legacy layout is a
+    // count and (axis, value) pairs for axes then the same for precisions.
+    static final int COMPACT_MARKER = 0x80000000;
+    static final int COMPACT_VERSION = 1;
+    static final int COMPACT_VERSION_SHIFT = 24;
+    static final int COMPACT_PRECISION_SHIFT = 8;
+    static volatile boolean sCompactParcel = false;
+    // bit per slot set when the value was supplied
+    int mAxisMask;
+    int mPrecisionMask;
 
     public MotionEvent(long eventTime, int deviceId, float x, float y, float z, float rz, float xPrecision, float yPrecision) {
         super(eventTime, deviceId);
 
-        int axis = 4;
-        this.mAxis = new SparseArray(4);
-        this.mAxis.put(0, Float.valueOf(x));
-        this.mAxis.put(1, Float.valueOf(y));
-        this.mAxis.put(11, Float.valueOf(z));
-        this.mAxis.put(14, Float.valueOf(rz));
+        putAxis(AXIS_X, x);
+        putAxis(AXIS_Y, y);
+        putAxis(AXIS_Z, z);
+        putAxis(AXIS_RZ, rz);
 
-        int precision = 2;
-        this.mPrecision = new SparseArray(2);
-        this.mPrecision.put(0, Float.valueOf(xPrecision));
-        this.mPrecision.put(1, Float.valueOf(yPrecision));
+        putPrecision(AXIS_X, xPrecision);
+        putPrecision(AXIS_Y, yPrecision);
     }
 
     public MotionEvent(long eventTime, int deviceId, int[] axisKey, float[] axisValue, int[] precisionKey, float[] precisionValue) {
         super(eventTime, deviceId);
 
         int axis = axisKey.length;
-        this.mAxis = new SparseArray(axis);
         for (int index = 0; index < axis; index++) {
-            this.mAxis.put(axisKey[index], Float.valueOf(axisValue[index]));
+            putAxis(axisKey[index], axisValue[index]);
         }
 
         int precision = precisionKey.length;
-        this.mPrecision = new SparseArray(precision);
         for (int index = 0; index < precision; index++) {
-            this.mPrecision.put(precisionKey[index], Float.valueOf(precisionValue[index]));
+            putPrecision(precisionKey[index], precisionValue[index]);
         }
     }
 
     MotionEvent(Parcel parcel) {
         super(parcel);
+        readAxes(parcel);
+    }
+
+    MotionEvent() {
+    }
+
+    // Refill a pooled event in place
+    final void set(Parcel parcel) {
+        readBase(parcel);
+        this.mAxisMask = 0;
+        this.mPrecisionMask = 0;
+        Arrays.fill(this.mAxis, 0.0F);
+        Arrays.fill(this.mPrecision, 0.0F);
+        readAxes(parcel);
+    }
 
+    private void readAxes(Parcel parcel) {
         int axis = parcel.readInt();
-        this.mAxis = new SparseArray(axis);
+        if (axis < 0) {
+            readCompact(parcel, axis);
+            return;
+        }
         for (int index = 0; index < axis; index++) {
             int key = parcel.readInt();
             float value = parcel.readFloat();
-            this.mAxis.put(key, Float.valueOf(value));
+            putAxis(key, value);
         }
 
         int precision = parcel.readInt();
-        this.mPrecision = new SparseArray(precision);
-        for (int index = 0; index < axis; index++) {
+        for (int index = 0; index < precision; index++) {
             int key = parcel.readInt();
             float value = parcel.readFloat();
-            this.mPrecision.put(key, Float.valueOf(value));
+            putPrecision(key, value);
         }
     }
 
+    private void readCompact(Parcel parcel, int header) {
+        if (compactVersion(header) != COMPACT_VERSION)
+            return; // unknown layout, leave the event empty
+        int axisMask = compactAxisMask(header);
+        int precisionMask = compactPrecisionMask(header);
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((axisMask & (1 << slot)) != 0)
+                this.mAxis[slot] = parcel.readFloat();
+        }
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((precisionMask & (1 << slot)) != 0)
+                this.mPrecision[slot] = parcel.readFloat();
+        }
+        this.mAxisMask = axisMask;
+        this.mPrecisionMask = precisionMask;
+    }
+
+    static int axisSlot(int axis) {
+        switch (axis) {
+            case AXIS_X:
+                return 0;
+            case AXIS_Y:
+                return 1;
+            case AXIS_Z:
+                return 2;
+            case AXIS_RZ:
+                return 3;
+            case AXIS_LTRIGGER:
+                return 4;
+            case AXIS_RTRIGGER:
+                return 5;
+            default:
+                return -1;
+        }
+    }
+
+    // axes outside the table are dropped, getAxisValue() always returned 0 for them
+    final void putAxis(int axis, float value) {
+        int slot = axisSlot(axis);
+        if (slot < 0)
+            return;
+        this.mAxis[slot] = value;
+        this.mAxisMask |= 1 << slot;
+    }
+
+    final void putPrecision(int axis, float value) {
+        int slot = axisSlot(axis);
+        if (slot < 0)
+            return;
+        this.mPrecision[slot] = value;
+        this.mPrecisionMask |= 1 << slot;
+    }
+
     public int describeContents() {
         return 0;
     }
@@ -82,7 +165,9 @@ public final class MotionEvent extends BaseEvent
 
     public final float getAxisValue(int axis, int pointerIndex) {
         if (pointerIndex == 0) {
-            return ((Float) this.mAxis.get(axis, Float.valueOf(0.0F))).floatValue();
+            int slot = axisSlot(axis);
+            if (slot >= 0)
+                return this.mAxis[slot];
         }
         return 0.0F;
     }
@@ -112,7 +197,7 @@ public final class MotionEvent extends BaseEvent
     }
 
     public final float getXPrecision() {
-        return ((Float) this.mPrecision.get(0, Float.valueOf(0.0F))).floatValue();
+        return this.mPrecision[axisSlot(AXIS_X)];
     }
 
     public final float getY() {
@@ -124,24 +209,61 @@ public final class MotionEvent extends BaseEvent
     }
 
     public final float getYPrecision() {
-        return ((Float) this.mPrecision.get(1, Float.valueOf(0.0F))).floatValue();
+        return this.mPrecision[axisSlot(AXIS_Y)];
     }
 
     public void writeToParcel(Parcel parcel, int flags) {
         super.writeToParcel(parcel, flags);
 
-        int axis = this.mAxis.size();
-        parcel.writeInt(axis);
-        for (int index = 0; index < axis; index++) {
-            parcel.writeInt(this.mAxis.keyAt(index));
-            parcel.writeFloat(((Float) this.mAxis.valueAt(index)).floatValue());
+        if (sCompactParcel) {
+            writeCompact(parcel);
+            return;
         }
+        writeSlots(parcel, this.mAxis, this.mAxisMask);
+        writeSlots(parcel, this.mPrecision, this.mPrecisionMask);
+    }
 
-        int precision = this.mPrecision.size();
-        parcel.writeInt(precision);
-        for (int index = 0; index < precision; index++) {
-            parcel.writeInt(this.mPrecision.keyAt(index));
-            parcel.writeFloat(((Float) this.mPrecision.valueAt(index)).floatValue());
+    private void writeCompact(Parcel parcel) {
+        parcel.writeInt(compactHeader(this.mAxisMask, this.mPrecisionMask));
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((this.mAxisMask & (1 << slot)) != 0)
+                parcel.writeFloat(this.mAxis[slot]);
+        }
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((this.mPrecisionMask & (1 << slot)) != 0)
+                parcel.writeFloat(this.mPrecision[slot]);
+        }
+    }
+
+    static int compactHeader(int axisMask, int precisionMask) {
+        return COMPACT_MARKER | (COMPACT_VERSION << COMPACT_VERSION_SHIFT)
+                | (precisionMask << COMPACT_PRECISION_SHIFT) | axisMask;
+    }
+
+    static int compactVersion(int header) {
+        return (header >>> COMPACT_VERSION_SHIFT) & 0x7F;
+    }
+
+    static int compactAxisMask(int header) {
+        return header & SLOT_MASK;
+    }
+
+    static int compactPrecisionMask(int header) {
+        return (header >>> COMPACT_PRECISION_SHIFT) & SLOT_MASK;
+    }
+
+    // Write the compact layout once the other side has agreed to read it
+    static void setCompactParcel(boolean compact) {
+        sCompactParcel = compact;
+    }
+
+    private static void writeSlots(Parcel parcel, float[] values, int mask) {
+        parcel.writeInt(Integer.bitCount(mask));
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((mask & (1 << slot)) == 0)
+                continue;
+            parcel.writeInt(AXES[slot]);
+            parcel.writeFloat(values[slot]);
         }
     }
 
@@ -0,0 +1,35 @@
+package com.bda.controller;
+
+// Bounded free list of reusable objects. Objects come from obtain() on the
+// binder thread and go back through recycle() on the listener's thread, so
+// access is synchronized. When the pool is empty a new object is created and
+// when it's full recycled objects are left to the GC.
+abstract class Pool<T> {
+    private final Object[] mFree;
+    private int mCount;
+
+    Pool(int capacity) {
+        this.mFree = new Object[capacity];
+    }
+
+    abstract T create();
+
+    @SuppressWarnings("unchecked")
+    final T obtain() {
+        synchronized (this) {
+            if (this.mCount > 0) {
+                T obj = (T) this.mFree[--this.mCount];
+                this.mFree[this.mCount] = null;
+                return obj;
+            }
+        }
+        return create();
+    }
+
+    final void recycle(T obj) {
+        synchronized (this) {
+            if (this.mCount < this.mFree.length)
+                this.mFree[this.mCount++] = obj;
+        }
+    }
+}
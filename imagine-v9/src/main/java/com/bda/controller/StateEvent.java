@@ -23,8 +23,8 @@ public class StateEvent extends BaseEvent
     public static final int ACTION_DISCONNECTED = 0;
     public static final int ACTION_CONNECTED = 1;
     public static final int ACTION_CONNECTING = 2;
-    final int mState;
-    final int mAction;
+    int mState;
+    int mAction;
     public static final Parcelable.Creator<StateEvent> CREATOR = new ParcelableCreator();
 
     public StateEvent(long eventTime, int deviceId, int state, int action) {
@@ -39,6 +39,16 @@ public class StateEvent extends BaseEvent
         this.mAction = parcel.readInt();
     }
 
+    StateEvent() {
+    }
+
+    // Refill a pooled event in place
+    final void set(Parcel parcel) {
+        readBase(parcel);
+        this.mState = parcel.readInt();
+        this.mAction = parcel.readInt();
+    }
+
     public int describeContents() {
         return 0;
     }
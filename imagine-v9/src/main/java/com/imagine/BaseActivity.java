@@ -28,18 +28,22 @@ import android.os.Vibrator;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Build;
+import android.os.PowerManager;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewConfiguration;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.Display;
+import android.view.Surface;
+import android.view.SurfaceHolder;
 import android.view.InputDevice;
 import android.view.Gravity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.PixelFormat;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.content.res.AssetManager;
@@ -73,9 +77,16 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
 
     protected static native void documentTreeOpened(long nativeUserData, String path);
 
+    protected static native void displayModeSelected(long nativeUserData, int modeId, float refreshRate,
+                                                     int[] repeatPattern);
+
+    protected static native void thermalTierChanged(long nativeUserData, int tier, int filter,
+                                                    int frameSkip, int audioBufferStrategy);
+
     protected static final int commonUILayoutFlags = View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
             | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION;
     protected Display defaultDpy;
+    protected Surface surface;
     protected long activityResultNativeUserData;
     protected static final int REQUEST_OPEN_DOCUMENT_TREE = 1;
     protected static final int REQUEST_BT_ON = 2;
@@ -121,6 +132,23 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
         DisplayListenerHelper.enumPresentationDisplays(this, nativeUserData);
     }
 
+    // Pick and request the display mode best suited to content running at contentRate,
+    // returning the selected refresh rate. Pass 0 to drop the request.
+    protected float matchRefreshRate(float contentRate, long nativeUserData) {
+        if (android.os.Build.VERSION.SDK_INT < 23)
+            return defaultDpy.getRefreshRate();
+        if (contentRate <= 0) {
+            RefreshRateMatcher.apply(getWindow(), surface, defaultDpy.getMode(), 0);
+            return defaultDpy.getRefreshRate();
+        }
+        RefreshRateMatcher.Match match = RefreshRateMatcher.bestMode(defaultDpy, contentRate);
+        float refreshRate = match.mode.getRefreshRate();
+        RefreshRateMatcher.apply(getWindow(), surface, match.mode, contentRate);
+        displayModeSelected(nativeUserData, match.mode.getModeId(), refreshRate,
+                RefreshRateMatcher.repeatPattern(refreshRate, contentRate));
+        return refreshRate;
+    }
+
     protected void enumInputDevices(long nativeUserData) {
         InputDeviceHelper.enumInputDevices(this, nativeUserData);
     }
@@ -239,6 +267,18 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
         }
     }
 
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        surface = holder.getSurface();
+        super.surfaceCreated(holder);
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        super.surfaceDestroyed(holder);
+        surface = null;
+    }
+
     @Override
     public void onGlobalLayout() {
         // override to make sure NativeActivity's implementation is never called
@@ -314,11 +354,15 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
     }
 
     protected FontRenderer newFontRenderer() {
-        return new FontRenderer();
+        return new FontRenderer(new GlyphCache(getCacheDir(), getResources().getDisplayMetrics().density));
     }
 
     protected ChoreographerHelper choreographerHelper(long timerAddr) {
-        return new ChoreographerHelper(timerAddr);
+        return new ChoreographerHelper(timerAddr, defaultDpy.getRefreshRate());
+    }
+
+    protected ChoreographerHelper choreographerHelper(long timerAddr, boolean useFrameThread) {
+        return new ChoreographerHelper(timerAddr, useFrameThread, defaultDpy.getRefreshRate());
     }
 
     protected InputDeviceListenerHelper inputDeviceListenerHelper(long nativeUserData) {
@@ -333,6 +377,10 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
         return new MOGAHelper(this, nativeUserData);
     }
 
+    protected MOGAHelper mogaHelper(long nativeUserData, boolean directDelivery) {
+        return new MOGAHelper(this, nativeUserData, directDelivery);
+    }
+
     protected PresentationHelper presentation(Display display, long nativeUserData) {
         return new PresentationHelper(this, display, nativeUserData);
     }
@@ -349,6 +397,61 @@ public class BaseActivity extends NativeActivity implements AudioManager.OnAudio
         }
     }
 
+    // Hint session for the emulation and render threads, targeting one frame at
+    // refreshRate (or the main display's rate when 0). Native code reports each
+    // frame's work duration to it.
+    protected PerformanceHint performanceHint(int[] threadIds, float refreshRate) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S)
+            return PerformanceHint.NONE;
+        if (refreshRate <= 0)
+            refreshRate = defaultDpy.getRefreshRate();
+        long targetNanos = refreshRate > 0 ? (long) (1000000000. / refreshRate) : 16666667;
+        return PerformanceHintSession.create(this, threadIds, targetNanos);
+    }
+
+    // Starts reporting thermal quality tiers to native code through thermalTierChanged(),
+    // null before Android 10 where thermal status isn't available
+    protected ThermalPolicy thermalPolicy(final long nativeUserData) {
+        if (android.os.Build.VERSION.SDK_INT < 29)
+            return null;
+        ThermalPolicy policy = new ThermalPolicy(
+                new PowerManagerThermalSource((PowerManager) getSystemService(Context.POWER_SERVICE)),
+                new ThermalPolicy.Listener() {
+                    public void onTierChanged(int tier, int filter, int frameSkip, int audioBufferStrategy) {
+                        Log.i(logTag, "thermal tier:" + tier + " filter:" + filter + " frame skip:" + frameSkip
+                                + " audio:" + audioBufferStrategy);
+                        thermalTierChanged(nativeUserData, tier, filter, frameSkip, audioBufferStrategy);
+                    }
+                });
+        policy.start();
+        return policy;
+    }
+
+    // Let frame time variance seen by helper switch sustained performance mode,
+    // null before Android 7 where the mode doesn't exist. The policy starts in
+    // the menu state, native code must call setInMenu(false) once play begins.
+    protected SustainedPerformancePolicy sustainedPerformancePolicy(ChoreographerHelper helper) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N)
+            return null;
+        final Runnable enable = new Runnable() {
+            public void run() {
+                setSustainedPerformanceMode(true);
+            }
+        };
+        final Runnable disable = new Runnable() {
+            public void run() {
+                setSustainedPerformanceMode(false);
+            }
+        };
+        SustainedPerformancePolicy policy = new SustainedPerformancePolicy(new SustainedPerformancePolicy.Listener() {
+            public void onSustainedPerformanceMode(boolean on) {
+                runOnUiThread(on ? enable : disable);
+            }
+        });
+        helper.setSustainedPerformancePolicy(policy);
+        return policy;
+    }
+
     protected Bitmap makeBitmap(int width, int height, int format) {
         Bitmap.Config config = Bitmap.Config.ARGB_8888;
         if (format == 4)
@@ -15,8 +15,16 @@
 
 package com.imagine;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.view.Choreographer;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+
 final class ChoreographerHelper {
     private final class Callback implements Choreographer.FrameCallback {
         private long nativeUserData;
@@ -27,7 +35,33 @@ final class ChoreographerHelper {
 
         @Override
         public void doFrame(long frameTimeNanos) {
-            onFrame(nativeUserData, frameTimeNanos);
+            synchronized (ChoreographerHelper.this) {
+                framePosted = false;
+            }
+            // only consecutive frames count, not the first one after an idle period
+            if (repostedInFrame) {
+                frameStats.record(frameTimeNanos - lastFrameTimeNanos);
+                SustainedPerformancePolicy policy = sustainedPerformancePolicy;
+                if (policy != null)
+                    policy.onFrame(frameTimeNanos - lastFrameTimeNanos);
+            }
+            lastFrameTimeNanos = frameTimeNanos;
+            repostedInFrame = false;
+            vsyncPredictor.update(frameTimeNanos);
+            inFrame = true;
+            if (reportDeadline) {
+                long nextVsyncNanos = vsyncPredictor.nextVsyncNanos(frameTimeNanos);
+                onFrameDeadline(nativeUserData, frameTimeNanos, nextVsyncNanos,
+                        nextVsyncNanos - System.nanoTime());
+            } else {
+                onFrame(nativeUserData, frameTimeNanos);
+            }
+            // decided under the lock so a concurrent pause() can't be undone
+            synchronized (ChoreographerHelper.this) {
+                if (continuous && !paused && frameControl.getInt(CONTROL_RUN) != 0)
+                    postFrame();
+            }
+            inFrame = false;
         }
     }
 
@@ -35,14 +69,239 @@ final class ChoreographerHelper {
 
     private static native void onFrame(long nativeUserData, long frameTimeNanos);
 
-    private final Choreographer choreographer = Choreographer.getInstance();
+    // frameBudgetNanos is the time left until the predicted next vsync when the callback started
+    private static native void onFrameDeadline(long nativeUserData, long frameTimeNanos,
+                                               long nextVsyncNanos, long frameBudgetNanos);
+
+    private volatile Choreographer choreographer;
     private final Callback callback;
+    // runs frame callbacks away from the UI thread when set
+    private volatile HandlerThread frameThread;
+    // guarded by this
+    private boolean framePosted;
+    private final FrameStats frameStats;
+    private long lastFrameTimeNanos;
+    private volatile boolean inFrame, repostedInFrame;
+    private final VsyncPredictor vsyncPredictor;
+    private final FrameSkipGovernor frameSkipGovernor;
+    private volatile SustainedPerformancePolicy sustainedPerformancePolicy;
+    private volatile boolean reportDeadline;
+    // continuous mode: frames re-post themselves while native code keeps the run flag set
+    static final int CONTROL_RUN = 0;
+    private final ByteBuffer frameControl = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+    private volatile boolean continuous, paused;
+    private final long nativeUserData;
+    private volatile FastForwardScheduler fastForward;
+
+    ChoreographerHelper(long nativeUserData, float refreshRate) {
+        this(nativeUserData, false, refreshRate);
+    }
 
-    ChoreographerHelper(long nativeUserData) {
+    ChoreographerHelper(long nativeUserData, boolean useFrameThread, float refreshRate) {
+        this.nativeUserData = nativeUserData;
         callback = new Callback(nativeUserData);
+        frameStats = new FrameStats(refreshRate);
+        vsyncPredictor = new VsyncPredictor(frameStats.refreshPeriodNanos());
+        frameSkipGovernor = new FrameSkipGovernor(vsyncPredictor);
+        if (useFrameThread) {
+            startFrameThread();
+        } else {
+            choreographer = Choreographer.getInstance();
+        }
     }
 
-    void postFrame() {
+    // Can be called from any thread
+    synchronized void postFrame() {
+        if (fastForward != null)
+            return;
+        if (inFrame)
+            repostedInFrame = true;
+        if (framePosted)
+            return;
+        framePosted = true;
         choreographer.postFrameCallback(callback);
     }
+
+    // Shared flag block for continuous mode, native code stops the frame loop
+    // by storing 0 to the int at CONTROL_RUN instead of calling back into Java
+    ByteBuffer frameControl() {
+        return frameControl;
+    }
+
+    // In continuous mode each callback re-posts itself after onFrame returns
+    // until the run flag is cleared, so native code doesn't call postFrame()
+    synchronized void setContinuous(boolean on) {
+        continuous = on;
+        frameControl.putInt(CONTROL_RUN, on ? 1 : 0);
+        if (on && !paused)
+            postFrame();
+    }
+
+    // Drive frames from a timer thread at multiplier times the display rate through
+    // onFastForwardFrame(), presenting every presentInterval frames. A multiplier
+    // of 1 or less goes back to vsync paced frames.
+    void setFastForward(float multiplier, int presentInterval) {
+        // the old scheduler is joined outside the lock since its frame callback may call in here
+        FastForwardScheduler oldFastForward;
+        synchronized (this) {
+            oldFastForward = fastForward;
+            fastForward = null;
+        }
+        if (oldFastForward != null)
+            oldFastForward.stop();
+        synchronized (this) {
+            if (multiplier <= 1.f) {
+                if (continuous && !paused && frameControl.getInt(CONTROL_RUN) != 0)
+                    postFrame();
+                return;
+            }
+            framePosted = false;
+            choreographer.removeFrameCallback(callback);
+            fastForward = new FastForwardScheduler(nativeUserData, vsyncPredictor.periodNanos(),
+                    multiplier, presentInterval);
+            if (!paused)
+                fastForward.start();
+        }
+    }
+
+    // Hold frames while the activity is stopped, continuous mode resumes afterwards
+    void pause() {
+        FastForwardScheduler pausedFastForward;
+        synchronized (this) {
+            paused = true;
+            pausedFastForward = fastForward;
+            framePosted = false;
+            choreographer.removeFrameCallback(callback);
+        }
+        // kept in fastForward so resume() restarts it
+        if (pausedFastForward != null)
+            pausedFastForward.stop();
+    }
+
+    synchronized void resume() {
+        paused = false;
+        if (fastForward != null) {
+            fastForward.start();
+            return;
+        }
+        if (continuous && frameControl.getInt(CONTROL_RUN) != 0)
+            postFrame();
+    }
+
+    // Move frame callbacks to or from a dedicated URGENT_DISPLAY priority thread,
+    // a pending frame request is carried over to the new thread
+    void setFrameThread(boolean on) {
+        if (on == (frameThread != null))
+            return;
+        // getting a Choreographer waits on its looper, so do it before locking
+        // in case that looper's thread is blocked on this helper's lock
+        HandlerThread newThread = on ? newFrameThread() : null;
+        Choreographer newChoreographer = choreographerForLooper(
+                on ? newThread.getLooper() : Looper.getMainLooper());
+        HandlerThread oldThread;
+        synchronized (this) {
+            if (on == (frameThread != null)) {
+                oldThread = newThread;
+            } else {
+                choreographer.removeFrameCallback(callback);
+                oldThread = frameThread;
+                frameThread = newThread;
+                choreographer = newChoreographer;
+                if (framePosted) {
+                    choreographer.postFrameCallback(callback);
+                }
+            }
+        }
+        if (oldThread != null) {
+            oldThread.quitSafely();
+        }
+    }
+
+    boolean usesFrameThread() {
+        return frameThread != null;
+    }
+
+    FrameStats frameStats() {
+        return frameStats;
+    }
+
+    // Frame times of consecutive frames are passed to the policy, null to detach
+    void setSustainedPerformancePolicy(SustainedPerformancePolicy policy) {
+        sustainedPerformancePolicy = policy;
+    }
+
+    // Native code reports frame work durations here from the frame thread
+    FrameSkipGovernor frameSkipGovernor() {
+        return frameSkipGovernor;
+    }
+
+    // Call when the display's refresh rate changes so jank is measured against the new period
+    void setRefreshRate(float refreshRate) {
+        frameStats.setRefreshRate(refreshRate);
+        vsyncPredictor.setNominalPeriod(frameStats.refreshPeriodNanos());
+    }
+
+    // Deliver frames through onFrameDeadline() with the predicted next vsync instead of onFrame()
+    void setDeadlineReporting(boolean on) {
+        reportDeadline = on;
+    }
+
+    long predictedPeriodNanos() {
+        return vsyncPredictor.periodNanos();
+    }
+
+    // Cancel any pending frame and shut down the frame thread, the helper
+    // can't be used afterwards
+    void stop() {
+        FastForwardScheduler oldFastForward;
+        synchronized (this) {
+            oldFastForward = fastForward;
+            fastForward = null;
+            framePosted = false;
+            choreographer.removeFrameCallback(callback);
+            if (frameThread != null) {
+                frameThread.quitSafely();
+                frameThread = null;
+            }
+        }
+        if (oldFastForward != null)
+            oldFastForward.stop();
+    }
+
+    private void startFrameThread() {
+        frameThread = newFrameThread();
+        choreographer = choreographerForLooper(frameThread.getLooper());
+    }
+
+    private static HandlerThread newFrameThread() {
+        HandlerThread thread = new HandlerThread("FrameClock", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        return thread;
+    }
+
+    // Choreographer instances are per-thread so they must be created on the looper's thread
+    private static Choreographer choreographerForLooper(Looper looper) {
+        if (looper == Looper.myLooper())
+            return Choreographer.getInstance();
+        final Choreographer[] result = new Choreographer[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(looper).post(new Runnable() {
+            public void run() {
+                result[0] = Choreographer.getInstance();
+                latch.countDown();
+            }
+        });
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return result[0];
+    }
 }
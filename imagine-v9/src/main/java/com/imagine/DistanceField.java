@@ -0,0 +1,112 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+// Converts anti-aliased glyph coverage to a signed distance field using the
+// Felzenszwalb & Huttenlocher squared Euclidean distance transform.
+// Output is 128 on the glyph edge, increasing inside and falling to 0 at
+// spread pixels outside. Scratch arrays are kept between calls.
+final class DistanceField {
+    private static final float INF = 1e20f;
+    private float[] outer = new float[0];
+    private float[] inner = new float[0];
+    private float[] f = new float[0];
+    private float[] z = new float[1];
+    private int[] v = new int[0];
+
+    void convert(byte[] pixels, int offset, int stride, int width, int height, float spread) {
+        int size = width * height;
+        if (outer.length < size) {
+            outer = new float[size];
+            inner = new float[size];
+        }
+        int maxDim = Math.max(width, height);
+        if (f.length < maxDim) {
+            f = new float[maxDim];
+            v = new int[maxDim];
+            z = new float[maxDim + 1];
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = pixels[offset + y * stride + x] & 0xff;
+                int i = y * width + x;
+                if (a == 255) {
+                    outer[i] = 0;
+                    inner[i] = INF;
+                } else if (a == 0) {
+                    outer[i] = INF;
+                    inner[i] = 0;
+                } else {
+                    // sub-pixel edge position from coverage
+                    float d = 0.5f - a / 255.f;
+                    outer[i] = d > 0 ? d * d : 0;
+                    inner[i] = d < 0 ? d * d : 0;
+                }
+            }
+        }
+        transform(outer, width, height);
+        transform(inner, width, height);
+        float scale = 128.f / spread;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                float dist = (float) Math.sqrt(outer[i]) - (float) Math.sqrt(inner[i]);
+                int val = Math.round(128.f - dist * scale);
+                pixels[offset + y * stride + x] = (byte) Math.max(0, Math.min(255, val));
+            }
+        }
+    }
+
+    private void transform(float[] grid, int width, int height) {
+        for (int x = 0; x < width; x++) {
+            transform1D(grid, x, width, height);
+        }
+        for (int y = 0; y < height; y++) {
+            transform1D(grid, y * width, 1, width);
+        }
+    }
+
+    private void transform1D(float[] grid, int offset, int stride, int length) {
+        for (int q = 0; q < length; q++) {
+            f[q] = grid[offset + q * stride];
+        }
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        int k = 0;
+        for (int q = 1; q < length; q++) {
+            int r = v[k];
+            float s = (f[q] - f[r] + q * q - r * r) / (2.f * (q - r));
+            while (s <= z[k]) {
+                // z[0] is -INF so this always stops at the first parabola
+                k--;
+                r = v[k];
+                s = (f[q] - f[r] + q * q - r * r) / (2.f * (q - r));
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < length; q++) {
+            while (z[k + 1] < q)
+                k++;
+            int r = q - v[k];
+            grid[offset + q * stride] = f[v[k]] + r * r;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.os.Process;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Drives frame ticks from its own thread at a multiple of the display rate so
+// fast-forward isn't capped by vsync. Sleeps with parkNanos until shortly
+// before each deadline then spins, since park can overshoot by far more than
+// a fast-forward frame lasts. Only every Nth tick is marked for presentation.
+final class FastForwardScheduler implements Runnable {
+    private static final String logTag = "FastForwardScheduler";
+    private static final long SPIN_NANOS = 500000;
+
+    private static native void onFastForwardFrame(long nativeUserData, long frameTimeNanos, boolean present);
+
+    private final long nativeUserData;
+    private final long periodNanos;
+    private final int presentInterval;
+    // the thread currently allowed to tick, a replaced thread exits after its current tick
+    private volatile Thread thread;
+
+    FastForwardScheduler(long nativeUserData, long displayPeriodNanos, float multiplier, int presentInterval) {
+        this.nativeUserData = nativeUserData;
+        periodNanos = (long) (displayPeriodNanos / multiplier);
+        this.presentInterval = Math.max(1, presentInterval);
+    }
+
+    synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this, "FastForward");
+        thread.start();
+    }
+
+    // Waits for the thread to exit, so don't call while holding a lock that
+    // code inside onFastForwardFrame may take. Safe to call from inside
+    // onFastForwardFrame, the thread then exits after the current tick.
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        long deadline = System.nanoTime();
+        int tick = 0;
+        Thread self = Thread.currentThread();
+        while (thread == self) {
+            long now = System.nanoTime();
+            long wait = deadline - now;
+            if (wait > SPIN_NANOS) {
+                LockSupport.parkNanos(wait - SPIN_NANOS);
+                continue;
+            }
+            while (System.nanoTime() < deadline) {
+                // spin for the last stretch
+            }
+            onFastForwardFrame(nativeUserData, deadline, ++tick % presentInterval == 0);
+            // don't try to catch up in a burst when a frame overran
+            deadline = Math.max(deadline + periodNanos, System.nanoTime());
+        }
+    }
+}
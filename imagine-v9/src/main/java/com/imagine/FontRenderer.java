@@ -19,34 +19,68 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 final class FontRenderer {
     private static final String logTag = "FontRenderer";
     private final Canvas canvas = new Canvas();
+    private final GlyphCache glyphCache;
+    private DistanceField distanceField;
+    private Bitmap scratchBitmap;
+    private ByteBuffer scratchPixels;
+    private final PaintRegistry paints = new PaintRegistry();
+    private final TextRunCache textRunCache = new TextRunCache(TEXT_RUN_CACHE_DEFAULT_BUDGET);
+    static final int TEXT_RUN_CACHE_DEFAULT_BUDGET = 2 * 1024 * 1024;
 
     // Android 2.3's Canvas setBitmap() derefs parameter without null checking,
     // fixed in Android 4.0.3+ but must use a dummy bitmap for old versions
     private final Bitmap nullBitmap =
             android.os.Build.VERSION.SDK_INT < 15 ? Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8) : null;
 
+    FontRenderer(GlyphCache glyphCache) {
+        this.glyphCache = glyphCache;
+    }
+
     private native void charMetricsCallback(long metricsAddr,
                                             int xSize, int ySize, int xOff, int yOff, int xAdv);
 
+    private native void sdfCharMetricsCallback(long metricsAddr,
+                                               int xSize, int ySize, int xOff, int yOff, int xAdv,
+                                               float spread, float scale);
+
+    // reused by all measurement calls, FontRenderer is only used from one thread
+    private final char[] cStr = new char[2];
+    private final Rect rect = new Rect();
+    private final float[] widths = new float[2];
+
+    static final int BULK_METRICS_STRIDE = 5; // xSize, ySize, xOff, yOff, xAdv
+
+    // Measure a code point into rect & widths, returning its UTF-16 length
+    // or 0 with empty metrics if it can't be rendered
+    private int measure(int codePoint, Paint paint) {
+        if (!Character.isValidCodePoint(codePoint) ||
+                (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            rect.setEmpty();
+            widths[0] = 0;
+            return 0;
+        }
+        int len = Character.toChars(codePoint, cStr, 0);
+        paint.getTextBounds(cStr, 0, len, rect);
+        paint.getTextWidths(cStr, 0, len, widths);
+        return len;
+    }
+
     private Bitmap glyphData(int idx, Paint paint, long metricsAddr, boolean makeBitmap) {
         // metrics
-        char[] cStr = new char[2];
-        cStr[0] = (char) idx;
         //Log.i(logTag, "glyph idx:" + idx);
-        Rect rect = new Rect();
-        paint.getTextBounds(cStr, 0, 1, rect);
+        int len = measure(idx, paint);
         int xSize = rect.right - rect.left;
         int ySize = rect.bottom - rect.top;
         if (xSize == 0 || ySize == 0)
             return null;
-        float[] w = new float[2];
-        paint.getTextWidths(cStr, 0, 1, w);
-        int advance = (int) w[0];
+        int advance = (int) widths[0];
         //Log.i(logTag, "rect:" + rect.left + ":" + rect.right + ":" + rect.top + ":" + rect.bottom);
         int cXSize = xSize;
         int cYSize = ySize;
@@ -60,7 +94,7 @@ final class FontRenderer {
             return null;
         Bitmap bitmap = Bitmap.createBitmap(cXSize, cYSize, Bitmap.Config.ALPHA_8);
         canvas.setBitmap(bitmap);
-        canvas.drawText(cStr, 0, 1, -left, cYSize - bottom, paint);
+        canvas.drawText(cStr, 0, len, -left, cYSize - bottom, paint);
         canvas.setBitmap(nullBitmap); // release text bitmap so it's destroyed later
         return bitmap;
     }
@@ -73,14 +107,225 @@ final class FontRenderer {
         glyphData(idx, paint, metricsAddr, false);
     }
 
-    Paint makePaint(int size, boolean isBold) {
-        Paint p = new Paint();
-        if (isBold) {
-            p.setTypeface(Typeface.DEFAULT_BOLD);
+    Bitmap bitmap(int idx, int paintHandle, long metricsAddr) {
+        return glyphData(idx, paints.paint(paintHandle), metricsAddr, true);
+    }
+
+    void metrics(int idx, int paintHandle, long metricsAddr) {
+        glyphData(idx, paints.paint(paintHandle), metricsAddr, false);
+    }
+
+    // Write BULK_METRICS_STRIDE ints per code point into out, glyphs with nothing
+    // to draw get a zero size but keep their advance
+    void bulkMetrics(int[] codePoints, int count, int paintHandle, int[] out) {
+        Paint paint = paints.paint(paintHandle);
+        for (int i = 0, o = 0; i < count; i++, o += BULK_METRICS_STRIDE) {
+            measure(codePoints[i], paint);
+            int xSize = rect.right - rect.left;
+            int ySize = rect.bottom - rect.top;
+            boolean hasBitmap = xSize != 0 && ySize != 0;
+            out[o] = hasBitmap ? xSize : 0;
+            out[o + 1] = hasBitmap ? ySize : 0;
+            out[o + 2] = hasBitmap ? rect.left : 0;
+            out[o + 3] = hasBitmap ? -rect.top : 0;
+            out[o + 4] = (int) widths[0];
+        }
+    }
+
+    // Same as above but into a direct buffer in native byte order starting at its position
+    void bulkMetrics(int[] codePoints, int count, int paintHandle, ByteBuffer out) {
+        Paint paint = paints.paint(paintHandle);
+        out.order(ByteOrder.nativeOrder());
+        int pos = out.position();
+        for (int i = 0; i < count; i++, pos += BULK_METRICS_STRIDE * 4) {
+            measure(codePoints[i], paint);
+            int xSize = rect.right - rect.left;
+            int ySize = rect.bottom - rect.top;
+            boolean hasBitmap = xSize != 0 && ySize != 0;
+            out.putInt(pos, hasBitmap ? xSize : 0);
+            out.putInt(pos + 4, hasBitmap ? ySize : 0);
+            out.putInt(pos + 8, hasBitmap ? rect.left : 0);
+            out.putInt(pos + 12, hasBitmap ? -rect.top : 0);
+            out.putInt(pos + 16, (int) widths[0]);
+        }
+    }
+
+    // Like bitmap() but the coverage is copied into dest at offset with stride bytes per row,
+    // avoiding a Bitmap per glyph. Returns false if the glyph has nothing to draw.
+    boolean glyphToBuffer(int idx, int paintHandle, long metricsAddr, ByteBuffer dest, int offset, int stride) {
+        Paint paint = paints.paint(paintHandle);
+        int len = measure(idx, paint);
+        if (rect.isEmpty())
+            return false;
+        int xSize = rect.right - rect.left;
+        int ySize = rect.bottom - rect.top;
+        charMetricsCallback(metricsAddr, xSize, ySize, rect.left, -rect.top, (int) widths[0]);
+        Bitmap bitmap = scratchBitmap(xSize, ySize);
+        bitmap.eraseColor(0);
+        canvas.setBitmap(bitmap);
+        canvas.drawText(cStr, 0, len, -rect.left, -rect.top, paint);
+        canvas.setBitmap(nullBitmap);
+        int rowBytes = bitmap.getRowBytes();
+        if (stride == rowBytes) {
+            dest.position(offset);
+            bitmap.copyPixelsToBuffer(dest);
+        } else {
+            scratchPixels.clear();
+            bitmap.copyPixelsToBuffer(scratchPixels);
+            byte[] pixels = scratchPixels.array();
+            for (int y = 0; y < ySize; y++) {
+                dest.position(offset + y * stride);
+                dest.put(pixels, y * rowBytes, xSize);
+            }
+        }
+        return true;
+    }
+
+    private Bitmap scratchBitmap(int width, int height) {
+        if (scratchBitmap == null || scratchBitmap.getAllocationByteCount() < width * height) {
+            if (scratchBitmap != null)
+                scratchBitmap.recycle();
+            // leave room so a few larger glyphs don't each force a new allocation
+            int size = Math.max(width, height) * 2;
+            scratchBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+            scratchPixels = ByteBuffer.allocate(scratchBitmap.getAllocationByteCount());
+        }
+        scratchBitmap.reconfigure(width, height, Bitmap.Config.ALPHA_8);
+        return scratchBitmap;
+    }
+
+    GlyphAtlas atlas(int firstCodePoint, int lastCodePoint, int paintHandle, int pageSize) {
+        return atlas(firstCodePoint, lastCodePoint, paintHandle, pageSize, 0);
+    }
+
+    // With a non-zero sdfSpread the pages hold distance fields instead of coverage
+    // and the atlas can be drawn at any size by scaling its metrics by size * sdfScale
+    GlyphAtlas atlas(int firstCodePoint, int lastCodePoint, int paintHandle, int pageSize, int sdfSpread) {
+        int glyphCount = lastCodePoint - firstCodePoint + 1;
+        if (glyphCount <= 0 || pageSize <= 0)
+            return null;
+        Paint paint = paints.paint(paintHandle);
+        String paintKey = paints.key(paintHandle);
+        if (glyphCache != null) {
+            GlyphAtlas cachedAtlas = glyphCache.load(paintKey, firstCodePoint, lastCodePoint, pageSize, sdfSpread);
+            if (cachedAtlas != null)
+                return cachedAtlas;
+        }
+        GlyphAtlas atlas = new GlyphAtlas(firstCodePoint, glyphCount, pageSize);
+        if (sdfSpread > 0) {
+            atlas.sdfSpread = sdfSpread;
+            atlas.sdfScale = 1.f / paint.getTextSize();
+        }
+        int[] metrics = atlas.metrics;
+        for (int i = 0; i < glyphCount; i++) {
+            int codePoint = firstCodePoint + i;
+            int base = i * GlyphAtlas.METRICS_STRIDE;
+            metrics[base + GlyphAtlas.CODE_POINT] = codePoint;
+            if (measure(codePoint, paint) == 0)
+                continue;
+            metrics[base + GlyphAtlas.X_ADV] = (int) widths[0];
+            if (rect.isEmpty())
+                continue;
+            metrics[base + GlyphAtlas.X_SIZE] = rect.right - rect.left + sdfSpread * 2;
+            metrics[base + GlyphAtlas.Y_SIZE] = rect.bottom - rect.top + sdfSpread * 2;
+            metrics[base + GlyphAtlas.X_OFF] = rect.left - sdfSpread;
+            metrics[base + GlyphAtlas.Y_OFF] = -rect.top + sdfSpread;
+        }
+        int pageCount = atlas.pack();
+        atlas.pages = new Bitmap[pageCount];
+        for (int p = 0; p < pageCount; p++) {
+            Bitmap page = Bitmap.createBitmap(pageSize, pageSize, Bitmap.Config.ALPHA_8);
+            atlas.pages[p] = page;
+            canvas.setBitmap(page);
+            for (int i = 0; i < glyphCount; i++) {
+                int base = i * GlyphAtlas.METRICS_STRIDE;
+                if (metrics[base + GlyphAtlas.PAGE] != p)
+                    continue;
+                int len = Character.toChars(firstCodePoint + i, cStr, 0);
+                canvas.drawText(cStr, 0, len,
+                        metrics[base + GlyphAtlas.X] - metrics[base + GlyphAtlas.X_OFF],
+                        metrics[base + GlyphAtlas.Y] + metrics[base + GlyphAtlas.Y_OFF], paint);
+            }
+            if (sdfSpread > 0)
+                toDistanceField(page, metrics, p, sdfSpread);
         }
-        p.setAntiAlias(true);
-        p.setTextSize(size);
-        p.setColor(0xffffffff);
-        return p;
+        canvas.setBitmap(nullBitmap);
+        if (glyphCache != null)
+            glyphCache.store(paintKey, atlas);
+        return atlas;
+    }
+
+    // Convert each glyph box of an atlas page separately so neighbors don't affect the distances
+    private void toDistanceField(Bitmap page, int[] metrics, int pageIdx, int spread) {
+        ByteBuffer pixels = ByteBuffer.allocate(page.getByteCount());
+        page.copyPixelsToBuffer(pixels);
+        int rowBytes = page.getRowBytes();
+        for (int base = 0; base < metrics.length; base += GlyphAtlas.METRICS_STRIDE) {
+            if (metrics[base + GlyphAtlas.PAGE] != pageIdx)
+                continue;
+            distanceField().convert(pixels.array(),
+                    metrics[base + GlyphAtlas.Y] * rowBytes + metrics[base + GlyphAtlas.X], rowBytes,
+                    metrics[base + GlyphAtlas.X_SIZE], metrics[base + GlyphAtlas.Y_SIZE], spread);
+        }
+        pixels.rewind();
+        page.copyPixelsFromBuffer(pixels);
+    }
+
+    private DistanceField distanceField() {
+        if (distanceField == null)
+            distanceField = new DistanceField();
+        return distanceField;
+    }
+
+    // Like bitmap() but the glyph is padded by spread pixels on each side and holds
+    // a distance field, the metrics callback also gets the spread and the scale
+    // (1 / reference text size) needed to draw it at other sizes
+    Bitmap sdfBitmap(int idx, int paintHandle, long metricsAddr, int spread) {
+        Paint paint = paints.paint(paintHandle);
+        int len = measure(idx, paint);
+        if (rect.isEmpty())
+            return null;
+        int xSize = rect.right - rect.left + spread * 2;
+        int ySize = rect.bottom - rect.top + spread * 2;
+        int xOff = rect.left - spread;
+        int yOff = -rect.top + spread;
+        sdfCharMetricsCallback(metricsAddr, xSize, ySize, xOff, yOff, (int) widths[0],
+                spread, 1.f / paint.getTextSize());
+        Bitmap bitmap = Bitmap.createBitmap(xSize, ySize, Bitmap.Config.ALPHA_8);
+        canvas.setBitmap(bitmap);
+        canvas.drawText(cStr, 0, len, -xOff, yOff, paint);
+        canvas.setBitmap(nullBitmap);
+        ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(pixels);
+        distanceField().convert(pixels.array(), 0, bitmap.getRowBytes(), xSize, ySize, spread);
+        pixels.rewind();
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+
+    // Whole string rendered into one bitmap, repeated labels are served from an LRU
+    TextRunCache.TextRun textRun(String text, int paintHandle) {
+        return textRunCache.get(text, paintHandle, paints.paint(paintHandle));
+    }
+
+    void setTextRunCacheBudget(int bytes) {
+        textRunCache.setBudget(bytes);
+    }
+
+    // Rasterize a range on a worker pool, glyphs are passed to native code in order
+    GlyphPrewarmer prewarm(int firstCodePoint, int lastCodePoint, int paintHandle, int threads, long nativeUserData) {
+        GlyphPrewarmer prewarmer = new GlyphPrewarmer(paints.paint(paintHandle),
+                firstCodePoint, lastCodePoint, threads, nativeUserData);
+        prewarmer.start();
+        return prewarmer;
+    }
+
+    // Returns the handle of an interned Paint, pass HINTING_DEFAULT to keep the system hinting
+    int paintHandle(int size, boolean isBold, String typefaceFamily, int hinting) {
+        return paints.handle(size, isBold, typefaceFamily, hinting);
+    }
+
+    Paint makePaint(int size, boolean isBold) {
+        return paints.paint(paints.handle(size, isBold, null, PaintRegistry.HINTING_DEFAULT));
     }
 }
@@ -0,0 +1,121 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import java.util.Arrays;
+
+// Decides how many frames in a row native code should emulate without
+// rendering so the average work per vsync fits the frame budget. Rendered
+// and skipped frame costs are tracked separately, rendered ones by the larger
+// of an EWMA and a high percentile so periodic spikes count. Skipping goes up
+// as soon as the budget is exceeded but only comes down after the lower skip
+// count has fit with headroom for a while, so it doesn't oscillate.
+final class FrameSkipGovernor {
+    private static final String logTag = "FrameSkipGovernor";
+    private static final int WINDOW = 64;
+    private static final int PERCENTILE_INDEX = WINDOW * 9 / 10; // 90th percentile
+    private static final double EWMA_ALPHA = 1. / 8.;
+    private static final double TARGET = 0.9; // fraction of the period work may use
+    private static final double DECREASE_TARGET = 0.75;
+    private static final int DECREASE_HOLD_FRAMES = 60;
+    static final int DEFAULT_MAX_SKIP = 4;
+
+    private final VsyncPredictor vsyncPredictor;
+    private final long[] renderSamples = new long[WINDOW];
+    private final long[] sortScratch = new long[WINDOW];
+    private int renderSampleCount, nextRenderSample;
+    private double renderEwma, skipEwma;
+    private int skip;
+    private int maxSkip = DEFAULT_MAX_SKIP;
+    private int decreaseFrames;
+
+    FrameSkipGovernor(VsyncPredictor vsyncPredictor) {
+        this.vsyncPredictor = vsyncPredictor;
+    }
+
+    // Called by native code after each emulated frame with the time spent on it,
+    // returns the number of following frames to emulate without rendering
+    int report(long workNanos, boolean rendered) {
+        if (workNanos <= 0)
+            return skip;
+        if (rendered) {
+            renderEwma = renderEwma == 0 ? workNanos : renderEwma + (workNanos - renderEwma) * EWMA_ALPHA;
+            renderSamples[nextRenderSample] = workNanos;
+            nextRenderSample = (nextRenderSample + 1) % WINDOW;
+            if (renderSampleCount < WINDOW)
+                renderSampleCount++;
+        } else {
+            skipEwma = skipEwma == 0 ? workNanos : skipEwma + (workNanos - skipEwma) * EWMA_ALPHA;
+        }
+        update();
+        return skip;
+    }
+
+    int skip() {
+        return skip;
+    }
+
+    void setMaxSkip(int maxSkip) {
+        this.maxSkip = Math.max(0, maxSkip);
+        if (skip > this.maxSkip)
+            skip = this.maxSkip;
+    }
+
+    void reset() {
+        renderSampleCount = 0;
+        nextRenderSample = 0;
+        renderEwma = 0;
+        skipEwma = 0;
+        skip = 0;
+        decreaseFrames = 0;
+    }
+
+    private void update() {
+        if (renderSampleCount == 0)
+            return;
+        double renderCost = Math.max(renderEwma, renderPercentile());
+        // until a skipped frame is measured assume rendering is half the work
+        double skipCost = skipEwma != 0 ? skipEwma : renderCost * 0.5;
+        double period = vsyncPredictor.periodNanos();
+        int needed = skipFor(renderCost, skipCost, period * TARGET);
+        if (needed > skip) {
+            skip = needed;
+            decreaseFrames = 0;
+        } else if (needed < skip && skipFor(renderCost, skipCost, period * DECREASE_TARGET) < skip) {
+            if (++decreaseFrames >= DECREASE_HOLD_FRAMES) {
+                skip--;
+                decreaseFrames = 0;
+            }
+        } else {
+            decreaseFrames = 0;
+        }
+    }
+
+    // Smallest skip count whose average cost per frame fits the budget
+    private int skipFor(double renderCost, double skipCost, double budget) {
+        for (int s = 0; s < maxSkip; s++) {
+            if ((renderCost + s * skipCost) / (s + 1) <= budget)
+                return s;
+        }
+        return maxSkip;
+    }
+
+    private long renderPercentile() {
+        System.arraycopy(renderSamples, 0, sortScratch, 0, renderSampleCount);
+        Arrays.sort(sortScratch, 0, renderSampleCount);
+        return sortScratch[PERCENTILE_INDEX * renderSampleCount / WINDOW];
+    }
+}
@@ -0,0 +1,80 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of inter-frame times in 1ms buckets plus jank counters. Written
+// from the frame callback thread only, and can be polled from any thread
+// without locking. Recording never allocates.
+final class FrameStats {
+    static final int BUCKET_COUNT = 64; // last bucket collects everything >= 63ms
+    static final long BUCKET_NANOS = 1000000;
+    // snapshot layout
+    static final int FRAMES = 0;
+    static final int JANKY_FRAMES = 1; // frames later than 1.5 refresh periods
+    static final int MISSED_VSYNCS = 2;
+    static final int MAX_DELTA_NANOS = 3;
+    static final int BUCKETS = 4;
+    static final int SNAPSHOT_SIZE = BUCKETS + BUCKET_COUNT;
+
+    private final AtomicLongArray counters = new AtomicLongArray(SNAPSHOT_SIZE);
+    private volatile long refreshPeriodNanos;
+
+    FrameStats(float refreshRate) {
+        setRefreshRate(refreshRate);
+    }
+
+    void setRefreshRate(float refreshRate) {
+        refreshPeriodNanos = refreshRate > 0 ? (long) (1000000000. / refreshRate) : 16666667;
+    }
+
+    long refreshPeriodNanos() {
+        return refreshPeriodNanos;
+    }
+
+    void record(long deltaNanos) {
+        if (deltaNanos <= 0)
+            return;
+        counters.incrementAndGet(FRAMES);
+        long period = refreshPeriodNanos;
+        if (deltaNanos * 2 > period * 3) {
+            counters.incrementAndGet(JANKY_FRAMES);
+            counters.addAndGet(MISSED_VSYNCS, (deltaNanos + period / 2) / period - 1);
+        }
+        while (true) {
+            long max = counters.get(MAX_DELTA_NANOS);
+            if (deltaNanos <= max || counters.compareAndSet(MAX_DELTA_NANOS, max, deltaNanos))
+                break;
+        }
+        int bucket = (int) Math.min(deltaNanos / BUCKET_NANOS, BUCKET_COUNT - 1);
+        counters.incrementAndGet(BUCKETS + bucket);
+    }
+
+    // Copy SNAPSHOT_SIZE values into out, optionally zeroing them so no
+    // concurrently recorded frame is lost or counted twice
+    void snapshot(long[] out, boolean reset) {
+        for (int i = 0; i < SNAPSHOT_SIZE; i++) {
+            out[i] = reset ? counters.getAndSet(i, 0) : counters.get(i);
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < SNAPSHOT_SIZE; i++) {
+            counters.set(i, 0);
+        }
+    }
+}
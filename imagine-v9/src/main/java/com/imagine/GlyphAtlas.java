@@ -0,0 +1,150 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.Arrays;
+
+// Glyphs of a code point range packed into shared ALPHA_8 pages.
+// Each glyph has a metrics record of METRICS_STRIDE ints and a
+// UV record of UV_STRIDE floats, both in code point order. A glyph
+// that isn't in any page, because it's empty or larger than a page,
+// has PAGE set to NO_PAGE and all-zero UVs.
+final class GlyphAtlas {
+    private static final String logTag = "GlyphAtlas";
+    static final int CODE_POINT = 0;
+    static final int PAGE = 1;
+    static final int X = 2;
+    static final int Y = 3;
+    static final int X_SIZE = 4;
+    static final int Y_SIZE = 5;
+    static final int X_OFF = 6;
+    static final int Y_OFF = 7;
+    static final int X_ADV = 8;
+    static final int METRICS_STRIDE = 9;
+    static final int UV_STRIDE = 4; // u0, v0, u1, v1
+    static final int NO_PAGE = -1;
+    static final int PADDING = 1; // gap to the next glyph, not needed at the page edge
+
+    final int firstCodePoint;
+    final int glyphCount;
+    final int pageSize;
+    final int[] metrics;
+    final float[] uvs;
+    Bitmap[] pages;
+    int sdfSpread; // 0 if pages hold plain coverage
+    float sdfScale;
+
+    GlyphAtlas(int firstCodePoint, int glyphCount, int pageSize) {
+        this.firstCodePoint = firstCodePoint;
+        this.glyphCount = glyphCount;
+        this.pageSize = pageSize;
+        metrics = new int[glyphCount * METRICS_STRIDE];
+        uvs = new float[glyphCount * UV_STRIDE];
+    }
+
+    // Shelf-pack all glyphs with a non-zero size, tallest first, and return the page count.
+    // Glyph sizes must already be set in metrics. Glyphs larger than a page are left
+    // out with NO_PAGE and logged.
+    int pack() {
+        long[] order = new long[glyphCount];
+        int sized = 0;
+        int oversized = 0;
+        for (int i = 0; i < glyphCount; i++) {
+            int base = i * METRICS_STRIDE;
+            metrics[base + PAGE] = NO_PAGE;
+            int xSize = metrics[base + X_SIZE];
+            int ySize = metrics[base + Y_SIZE];
+            if (xSize == 0 || ySize == 0)
+                continue;
+            if (xSize > pageSize || ySize > pageSize) {
+                if (oversized++ == 0) {
+                    Log.w(logTag, "glyph 0x" + Integer.toHexString(metrics[base + CODE_POINT]) + " size "
+                            + xSize + "x" + ySize + " doesn't fit page size " + pageSize);
+                }
+                continue;
+            }
+            // sort key: height in the upper bits, index in the lower
+            order[sized++] = ((long) ySize << 32) | i;
+        }
+        if (oversized > 1)
+            Log.w(logTag, oversized + " glyphs don't fit page size " + pageSize);
+        Arrays.sort(order, 0, sized);
+        float scale = 1.f / pageSize;
+        int page = 0, x = 0, y = 0, shelfHeight = 0;
+        for (int s = sized - 1; s >= 0; s--) {
+            int i = (int) order[s];
+            int base = i * METRICS_STRIDE;
+            int w = metrics[base + X_SIZE] + PADDING;
+            int h = metrics[base + Y_SIZE] + PADDING;
+            if (x + w - PADDING > pageSize) {
+                // start a new shelf
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+            if (y + h - PADDING > pageSize) {
+                page++;
+                x = 0;
+                y = 0;
+                shelfHeight = 0;
+            }
+            metrics[base + PAGE] = page;
+            metrics[base + X] = x;
+            metrics[base + Y] = y;
+            int uvBase = i * UV_STRIDE;
+            uvs[uvBase] = x * scale;
+            uvs[uvBase + 1] = y * scale;
+            uvs[uvBase + 2] = (x + w - PADDING) * scale;
+            uvs[uvBase + 3] = (y + h - PADDING) * scale;
+            x += w;
+            shelfHeight = Math.max(shelfHeight, h);
+        }
+        return sized == 0 ? 0 : page + 1;
+    }
+
+    int pageCount() {
+        return pages.length;
+    }
+
+    Bitmap page(int idx) {
+        return pages[idx];
+    }
+
+    int[] metrics() {
+        return metrics;
+    }
+
+    float[] uvs() {
+        return uvs;
+    }
+
+    int sdfSpread() {
+        return sdfSpread;
+    }
+
+    float sdfScale() {
+        return sdfScale;
+    }
+
+    void recycle() {
+        for (Bitmap page : pages) {
+            page.recycle();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Persists rasterized glyph atlases in the app cache directory so warm starts
+// skip text rendering. Files are keyed by the PaintRegistry key (typeface,
+// bold, text size, hinting), display density and code point range, and are
+// discarded when the format version or the system font set changes. Files left
+// over from an older version or font set are pruned on first use.
+final class GlyphCache {
+    private static final String logTag = "GlyphCache";
+    private static final int MAGIC = 0x47434831; // "GCH1"
+    private static final int VERSION = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File dir;
+    private final float density;
+    private long fontFingerprint;
+    private boolean pruned;
+
+    GlyphCache(File cacheDir, float density) {
+        dir = new File(cacheDir, "glyphs");
+        this.density = density;
+    }
+
+    private String key(String paintKey, int firstCodePoint, int lastCodePoint, int pageSize, int sdfSpread) {
+        return paintKey + "_d" + density +
+                "_" + firstCodePoint + "-" + lastCodePoint + "_p" + pageSize +
+                (sdfSpread > 0 ? "_sdf" + sdfSpread : "");
+    }
+
+    // 64-bit hash so distinct keys practically never share a file and evict each other
+    private File file(String key) {
+        return new File(dir, Long.toHexString(fnv1a(0xcbf29ce484222325L, key)) + ".glyphs");
+    }
+
+    // Delete files that can't be loaded anymore, such as ones written before a font
+    // update or with an older format, since nothing else would ever remove them
+    private void prune() {
+        if (pruned)
+            return;
+        pruned = true;
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        for (File file : files) {
+            boolean stale = true;
+            if (file.getName().endsWith(".glyphs")) {
+                header.clear();
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    try {
+                        FileChannel channel = raf.getChannel();
+                        while (header.hasRemaining() && channel.read(header) != -1) {}
+                    } finally {
+                        raf.close();
+                    }
+                    header.flip();
+                    stale = header.remaining() < 16 || header.getInt() != MAGIC ||
+                            header.getInt() != VERSION || header.getLong() != fontFingerprint();
+                } catch (Exception e) {
+                    Log.w(logTag, "error reading " + file + ": " + e);
+                }
+            }
+            if (stale) {
+                Log.i(logTag, "pruning stale cache file " + file);
+                file.delete();
+            }
+        }
+    }
+
+    GlyphAtlas load(String paintKey, int firstCodePoint, int lastCodePoint, int pageSize, int sdfSpread) {
+        prune();
+        String key = key(paintKey, firstCodePoint, lastCodePoint, pageSize, sdfSpread);
+        File file = file(key);
+        if (!file.exists())
+            return null;
+        GlyphAtlas atlas = null;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                atlas = read(buff, key);
+            } finally {
+                raf.close();
+            }
+        } catch (Exception e) {
+            Log.w(logTag, "error reading " + file + ": " + e);
+        }
+        if (atlas == null) {
+            Log.i(logTag, "discarding stale cache file " + file);
+            file.delete();
+        }
+        return atlas;
+    }
+
+    private GlyphAtlas read(ByteBuffer buff, String key) {
+        if (buff.getInt() != MAGIC || buff.getInt() != VERSION || buff.getLong() != fontFingerprint())
+            return null;
+        byte[] keyBytes = new byte[buff.getInt()];
+        buff.get(keyBytes);
+        if (!key.equals(new String(keyBytes, UTF8)))
+            return null;
+        int firstCodePoint = buff.getInt();
+        int glyphCount = buff.getInt();
+        int pageSize = buff.getInt();
+        int pageCount = buff.getInt();
+        int pageBytes = buff.getInt();
+        GlyphAtlas atlas = new GlyphAtlas(firstCodePoint, glyphCount, pageSize);
+        atlas.sdfSpread = buff.getInt();
+        atlas.sdfScale = buff.getFloat();
+        buff.asIntBuffer().get(atlas.metrics);
+        buff.position(buff.position() + atlas.metrics.length * 4);
+        buff.asFloatBuffer().get(atlas.uvs);
+        buff.position(buff.position() + atlas.uvs.length * 4);
+        atlas.pages = new Bitmap[pageCount];
+        for (int p = 0; p < pageCount; p++) {
+            Bitmap page = Bitmap.createBitmap(pageSize, pageSize, Bitmap.Config.ALPHA_8);
+            if (page.getByteCount() != pageBytes) {
+                // row layout differs from the one the file was written with
+                for (int i = 0; i < p; i++)
+                    atlas.pages[i].recycle();
+                page.recycle();
+                return null;
+            }
+            ByteBuffer pixels = buff.slice();
+            pixels.limit(pageBytes);
+            page.copyPixelsFromBuffer(pixels);
+            buff.position(buff.position() + pageBytes);
+            atlas.pages[p] = page;
+        }
+        return atlas;
+    }
+
+    void store(String paintKey, GlyphAtlas atlas) {
+        prune();
+        String key = key(paintKey, atlas.firstCodePoint, atlas.firstCodePoint + atlas.glyphCount - 1,
+                atlas.pageSize, atlas.sdfSpread);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return;
+        File file = file(key);
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        byte[] keyBytes = key.getBytes(UTF8);
+        int pageBytes = atlas.pages.length > 0 ? atlas.pages[0].getByteCount() : 0;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+            try {
+                raf.setLength(0);
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(48 + keyBytes.length +
+                        (atlas.metrics.length + atlas.uvs.length) * 4);
+                header.putInt(MAGIC).putInt(VERSION).putLong(fontFingerprint());
+                header.putInt(keyBytes.length).put(keyBytes);
+                header.putInt(atlas.firstCodePoint).putInt(atlas.glyphCount)
+                        .putInt(atlas.pageSize).putInt(atlas.pages.length).putInt(pageBytes);
+                header.putInt(atlas.sdfSpread).putFloat(atlas.sdfScale);
+                header.asIntBuffer().put(atlas.metrics);
+                header.position(header.position() + atlas.metrics.length * 4);
+                header.asFloatBuffer().put(atlas.uvs);
+                header.position(header.position() + atlas.uvs.length * 4);
+                header.flip();
+                while (header.hasRemaining())
+                    channel.write(header);
+                ByteBuffer pixels = ByteBuffer.allocate(pageBytes);
+                for (Bitmap page : atlas.pages) {
+                    pixels.clear();
+                    page.copyPixelsToBuffer(pixels);
+                    pixels.flip();
+                    while (pixels.hasRemaining())
+                        channel.write(pixels);
+                }
+            } finally {
+                raf.close();
+            }
+            if (!tmpFile.renameTo(file))
+                tmpFile.delete();
+        } catch (Exception e) {
+            Log.w(logTag, "error writing " + file + ": " + e);
+            tmpFile.delete();
+        }
+    }
+
+    // Hash of the OS build and installed system fonts, any font update changes rasterization
+    private long fontFingerprint() {
+        if (fontFingerprint != 0)
+            return fontFingerprint;
+        long hash = fnv1a(0xcbf29ce484222325L, android.os.Build.FINGERPRINT);
+        File[] fonts = new File("/system/fonts").listFiles();
+        if (fonts != null) {
+            Arrays.sort(fonts);
+            for (File font : fonts) {
+                hash = fnv1a(hash, font.getName());
+                hash = fnv1a(hash, font.length());
+                hash = fnv1a(hash, font.lastModified());
+            }
+        }
+        File fontsConfig = new File("/system/etc/fonts.xml");
+        hash = fnv1a(hash, fontsConfig.length());
+        hash = fnv1a(hash, fontsConfig.lastModified());
+        fontFingerprint = hash == 0 ? 1 : hash;
+        return fontFingerprint;
+    }
+
+    private static long fnv1a(long hash, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long fnv1a(long hash, long val) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (val >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
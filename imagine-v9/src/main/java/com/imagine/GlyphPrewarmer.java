@@ -0,0 +1,222 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Rasterizes a code point range on a pool of worker threads, each with its own
+// Canvas and scratch bitmap. Work is split into fixed size chunks and finished
+// chunks are handed to native code strictly in code point order.
+final class GlyphPrewarmer {
+    private static final String logTag = "GlyphPrewarmer";
+    static final int CHUNK_SIZE = 64;
+    static final int METRICS_STRIDE = 6; // xSize, ySize, xOff, yOff, xAdv, coverage offset
+
+    // coverage holds the tightly packed ALPHA_8 rows of every glyph in the chunk
+    private static native void glyphsReady(long nativeUserData, int firstCodePoint, int count,
+                                           int[] metrics, ByteBuffer coverage);
+
+    private static native void prewarmFinished(long nativeUserData, boolean cancelled);
+
+    private static final class Chunk {
+        final int firstCodePoint;
+        final int count;
+        final int[] metrics;
+        ByteBuffer coverage;
+
+        Chunk(int firstCodePoint, int count) {
+            this.firstCodePoint = firstCodePoint;
+            this.count = count;
+            metrics = new int[count * METRICS_STRIDE];
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final Paint paint;
+        private final Canvas canvas = new Canvas();
+        private final char[] cStr = new char[2];
+        private final Rect rect = new Rect();
+        private final float[] widths = new float[2];
+        private Bitmap scratch;
+        private ByteBuffer scratchPixels;
+
+        Worker(Paint paint, int idx) {
+            super("GlyphPrewarm" + idx);
+            // Paint isn't safe to share between threads
+            this.paint = new Paint(paint);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            while (!cancelled) {
+                int chunkIdx = nextChunk.getAndIncrement();
+                if (chunkIdx >= chunkCount)
+                    break;
+                Chunk chunk = render(chunkIdx);
+                if (!cancelled)
+                    deliver(chunkIdx, chunk);
+            }
+            if (scratch != null)
+                scratch.recycle();
+            if (activeWorkers.decrementAndGet() == 0) {
+                prewarmFinished(nativeUserData, cancelled);
+            }
+        }
+
+        private Chunk render(int chunkIdx) {
+            int first = firstCodePoint + chunkIdx * CHUNK_SIZE;
+            Chunk chunk = new Chunk(first, Math.min(CHUNK_SIZE, lastCodePoint - first + 1));
+            int[] metrics = chunk.metrics;
+            int coverageSize = 0;
+            int maxXSize = 0, maxYSize = 0;
+            for (int i = 0, o = 0; i < chunk.count; i++, o += METRICS_STRIDE) {
+                if (measure(first + i) == 0)
+                    continue;
+                int xSize = rect.right - rect.left;
+                int ySize = rect.bottom - rect.top;
+                metrics[o + 4] = (int) widths[0];
+                if (xSize == 0 || ySize == 0)
+                    continue;
+                metrics[o] = xSize;
+                metrics[o + 1] = ySize;
+                metrics[o + 2] = rect.left;
+                metrics[o + 3] = -rect.top;
+                metrics[o + 5] = coverageSize;
+                coverageSize += xSize * ySize;
+                maxXSize = Math.max(maxXSize, xSize);
+                maxYSize = Math.max(maxYSize, ySize);
+            }
+            chunk.coverage = ByteBuffer.allocateDirect(coverageSize);
+            if (coverageSize == 0)
+                return chunk;
+            ensureScratch(maxXSize, maxYSize);
+            byte[] scratchArr = scratchPixels.array();
+            int rowBytes = scratch.getRowBytes();
+            canvas.setBitmap(scratch);
+            for (int i = 0, o = 0; i < chunk.count && !cancelled; i++, o += METRICS_STRIDE) {
+                int xSize = metrics[o];
+                int ySize = metrics[o + 1];
+                if (xSize == 0)
+                    continue;
+                int len = Character.toChars(first + i, cStr, 0);
+                scratch.eraseColor(0);
+                canvas.drawText(cStr, 0, len, -metrics[o + 2], metrics[o + 3], paint);
+                scratchPixels.clear();
+                scratch.copyPixelsToBuffer(scratchPixels);
+                chunk.coverage.position(metrics[o + 5]);
+                for (int y = 0; y < ySize; y++) {
+                    chunk.coverage.put(scratchArr, y * rowBytes, xSize);
+                }
+            }
+            canvas.setBitmap(null);
+            chunk.coverage.clear();
+            return chunk;
+        }
+
+        private int measure(int codePoint) {
+            if (!Character.isValidCodePoint(codePoint) ||
+                    (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+                return 0;
+            int len = Character.toChars(codePoint, cStr, 0);
+            paint.getTextBounds(cStr, 0, len, rect);
+            paint.getTextWidths(cStr, 0, len, widths);
+            return len;
+        }
+
+        private void ensureScratch(int width, int height) {
+            if (scratch != null && scratch.getWidth() >= width && scratch.getHeight() >= height)
+                return;
+            if (scratch != null) {
+                width = Math.max(width, scratch.getWidth());
+                height = Math.max(height, scratch.getHeight());
+                scratch.recycle();
+            }
+            scratch = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            scratchPixels = ByteBuffer.allocate(scratch.getByteCount());
+        }
+    }
+
+    private final long nativeUserData;
+    private final int firstCodePoint;
+    private final int lastCodePoint;
+    private final int chunkCount;
+    private final Worker[] workers;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicInteger activeWorkers;
+    private final Chunk[] finishedChunks;
+    private int nextChunkToDeliver; // guarded by finishedChunks
+    private volatile int glyphsDelivered;
+    private volatile boolean cancelled;
+
+    GlyphPrewarmer(Paint paint, int firstCodePoint, int lastCodePoint, int threads, long nativeUserData) {
+        this.nativeUserData = nativeUserData;
+        this.firstCodePoint = firstCodePoint;
+        this.lastCodePoint = lastCodePoint;
+        chunkCount = Math.max(0, (lastCodePoint - firstCodePoint + CHUNK_SIZE) / CHUNK_SIZE);
+        finishedChunks = new Chunk[chunkCount];
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        threads = Math.max(1, Math.min(threads, chunkCount));
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(paint, i);
+        }
+        activeWorkers = new AtomicInteger(threads);
+    }
+
+    void start() {
+        for (Worker w : workers) {
+            w.start();
+        }
+    }
+
+    private void deliver(int chunkIdx, Chunk chunk) {
+        synchronized (finishedChunks) {
+            finishedChunks[chunkIdx] = chunk;
+            while (nextChunkToDeliver < chunkCount && finishedChunks[nextChunkToDeliver] != null) {
+                Chunk next = finishedChunks[nextChunkToDeliver];
+                finishedChunks[nextChunkToDeliver++] = null;
+                if (cancelled)
+                    return;
+                glyphsReady(nativeUserData, next.firstCodePoint, next.count, next.metrics, next.coverage);
+                glyphsDelivered += next.count;
+            }
+        }
+    }
+
+    // Stop scheduling new chunks, chunks not yet delivered are dropped
+    void cancel() {
+        cancelled = true;
+    }
+
+    // Fraction of the range delivered to native code so far
+    float progress() {
+        int total = lastCodePoint - firstCodePoint + 1;
+        return total <= 0 ? 1.f : (float) glyphsDelivered / total;
+    }
+
+    boolean isDone() {
+        return activeWorkers.get() == 0;
+    }
+}
@@ -0,0 +1,144 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Single producer, single consumer ring of fixed size input records in a
+// direct buffer, filled from a binder thread and drained by native code once
+// per frame without a looper hop.
+//
+// Layout: the consumer's read index is an int at READ_INDEX and the
+// producer's write index an int at WRITE_INDEX, on separate cache lines, and
+// records of RECORD_SIZE bytes start at HEADER_SIZE. Indices count records
+// and wrap freely, the slot is index & (capacity - 1). The producer stores
+// the write index with release ordering after the record bytes, so native
+// code drains with an acquire load of WRITE_INDEX and no JNI calls. Native
+// code must store the read index with release semantics once it has finished
+// reading records.
+final class InputEventRing {
+    private static final String logTag = "InputEventRing";
+    static final int READ_INDEX = 0;
+    static final int WRITE_INDEX = 64;
+    static final int HEADER_SIZE = 128;
+    static final int RECORD_SIZE = 48;
+    // record layout
+    static final int TYPE = 0;
+    static final int CONTROLLER_ID = 4;
+    static final int TIME = 8;
+    static final int KEY_ACTION = 16;
+    static final int KEY_CODE = 20;
+    static final int STATE = 16;
+    static final int STATE_ACTION = 20;
+    static final int AXES = 16; // 6 floats: x, y, z, rz, left trigger, right trigger
+    // record types
+    static final int TYPE_KEY = 1;
+    static final int TYPE_MOTION = 2;
+    static final int TYPE_STATE = 3;
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int writeIndex;
+    // only used for its memory ordering in publish()
+    private volatile int publishFence;
+    private int dropped;
+
+    InputEventRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    synchronized int writeIndex() {
+        return writeIndex;
+    }
+
+    // Events lost because native code fell a whole ring behind
+    synchronized int dropped() {
+        return dropped;
+    }
+
+    // Binder may call in on more than one pool thread, so producers are
+    // serialized here, the consumer side never takes the lock
+    synchronized boolean putKey(int controllerId, int action, int keyCode, long time) {
+        int offset = begin(TYPE_KEY, controllerId, time);
+        if (offset < 0)
+            return false;
+        buffer.putInt(offset + KEY_ACTION, action);
+        buffer.putInt(offset + KEY_CODE, keyCode);
+        publish(++writeIndex);
+        return true;
+    }
+
+    synchronized boolean putMotion(int controllerId, float x, float y, float z, float rz,
+                                   float lTrigger, float rTrigger, long time) {
+        int offset = begin(TYPE_MOTION, controllerId, time);
+        if (offset < 0)
+            return false;
+        buffer.putFloat(offset + AXES, x);
+        buffer.putFloat(offset + AXES + 4, y);
+        buffer.putFloat(offset + AXES + 8, z);
+        buffer.putFloat(offset + AXES + 12, rz);
+        buffer.putFloat(offset + AXES + 16, lTrigger);
+        buffer.putFloat(offset + AXES + 20, rTrigger);
+        publish(++writeIndex);
+        return true;
+    }
+
+    synchronized boolean putState(int controllerId, int state, int action, long time) {
+        int offset = begin(TYPE_STATE, controllerId, time);
+        if (offset < 0)
+            return false;
+        buffer.putInt(offset + STATE, state);
+        buffer.putInt(offset + STATE_ACTION, action);
+        publish(++writeIndex);
+        return true;
+    }
+
+    // Release store of the write index to the buffer. ByteBuffer has no ordered
+    // put before API 33, so a volatile store then load of a field orders the
+    // record bytes before the header store: the store releases the records and
+    // the value written to the header comes from an acquire load after it.
+    private void publish(int index) {
+        publishFence = index;
+        buffer.putInt(WRITE_INDEX, publishFence);
+    }
+
+    // Fill the common fields of the next free record and return its offset, or -1 if full
+    private int begin(int type, int controllerId, long time) {
+        int index = writeIndex;
+        if (index - buffer.getInt(READ_INDEX) >= capacity) {
+            dropped++;
+            return -1;
+        }
+        int offset = HEADER_SIZE + (index & (capacity - 1)) * RECORD_SIZE;
+        buffer.putInt(offset + TYPE, type);
+        buffer.putInt(offset + CONTROLLER_ID, controllerId);
+        buffer.putLong(offset + TIME, time);
+        return offset;
+    }
+}
@@ -17,6 +17,7 @@ package com.imagine;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.Looper;
 
 import com.bda.controller.Controller;
 import com.bda.controller.ControllerListener;
@@ -28,6 +29,12 @@ final class MOGAHelper implements ControllerListener {
     private static final String logTag = "MOGAHelper";
     Controller controller;
     private long nativeUserData;
+    // set when events go straight from the binder thread to native code
+    private final InputEventRing eventRing;
+    // set when motion events are merged to one per frame
+    private MotionCoalescer motionCoalescer;
+    // deliver events from every controller through the callbacks taking an id
+    private boolean multiController;
 
     private native void keyEvent(long nativeUserData, int action, int keyCode, long time);
 
@@ -36,21 +43,104 @@ final class MOGAHelper implements ControllerListener {
 
     private native void stateEvent(long nativeUserData, int state, int action);
 
+    private native void controllerKeyEvent(long nativeUserData, int controllerId, int action, int keyCode, long time);
+
+    private native void controllerMotionEvent(long nativeUserData, int controllerId,
+                                              float axisX, float axisY, float axisZ, float axisRZ,
+                                              float axisLTrigger, float axisRTrigger, long time);
+
+    private native void controllerStateEvent(long nativeUserData, int controllerId, int state, int action);
+
     MOGAHelper(Context context, long nativeUserData) {
+        this(context, nativeUserData, false);
+    }
+
+    // With directDelivery, events are written to eventRing() on the binder
+    // thread for native code to drain each frame instead of being posted to
+    // the main looper and passed through the native callbacks
+    MOGAHelper(Context context, long nativeUserData, boolean directDelivery) {
         this.nativeUserData = nativeUserData;
+        eventRing = directDelivery ? new InputEventRing(InputEventRing.DEFAULT_CAPACITY) : null;
         controller = Controller.getInstance(context);
         controller.init();
-        controller.setListener(this, new Handler());
+        // events are only read inside the callbacks
+        controller.setReusableEvents(true);
+        controller.setListener(this, directDelivery ? null : new Handler());
+    }
+
+    InputEventRing eventRing() {
+        return eventRing;
+    }
+
+    // Listen to all controllers and report them through the controller*Event()
+    // callbacks, otherwise only the first controller is used
+    void setMultiController(boolean on) {
+        if (on == multiController)
+            return;
+        multiController = on;
+        Handler handler = eventRing != null ? null : new Handler(Looper.getMainLooper());
+        if (on) {
+            for (int id = 1; id <= Controller.MAX_CONTROLLERS; id++) {
+                controller.setListener(id, this, handler);
+            }
+        } else {
+            controller.setListener(this, handler);
+        }
+    }
+
+    // Merge stick and trigger updates so native code gets at most one motion
+    // event per frame, only applies to looper delivery
+    void setMotionCoalescing(boolean on) {
+        if (eventRing != null || on == (motionCoalescer != null))
+            return;
+        if (on) {
+            motionCoalescer = new MotionCoalescer(new MotionCoalescer.Sink() {
+                public void onMotion(int controllerId, float[] axes, int offset, long time) {
+                    sendMotion(controllerId, axes[offset], axes[offset + 1], axes[offset + 2],
+                            axes[offset + 3], axes[offset + 4], axes[offset + 5], time);
+                }
+            });
+        } else {
+            motionCoalescer.flushAll();
+            motionCoalescer.cancel();
+            motionCoalescer = null;
+        }
     }
 
     @Override
     public void onKeyEvent(KeyEvent event) {
-        keyEvent(nativeUserData, event.getAction(), event.getKeyCode(), event.getEventTime());
+        if (eventRing != null) {
+            eventRing.putKey(event.getControllerId(), event.getAction(), event.getKeyCode(), event.getEventTime());
+            return;
+        }
+        if (motionCoalescer != null)
+            motionCoalescer.flush(event.getControllerId());
+        if (multiController) {
+            controllerKeyEvent(nativeUserData, event.getControllerId(), event.getAction(), event.getKeyCode(),
+                    event.getEventTime());
+        } else {
+            keyEvent(nativeUserData, event.getAction(), event.getKeyCode(), event.getEventTime());
+        }
     }
 
     @Override
     public void onMotionEvent(MotionEvent event) {
-        motionEvent(nativeUserData,
+        if (eventRing != null) {
+            eventRing.putMotion(event.getControllerId(),
+                    event.getAxisValue(Controller.AXIS_X), event.getAxisValue(Controller.AXIS_Y),
+                    event.getAxisValue(Controller.AXIS_Z), event.getAxisValue(Controller.AXIS_RZ),
+                    event.getAxisValue(Controller.AXIS_LTRIGGER), event.getAxisValue(Controller.AXIS_RTRIGGER),
+                    event.getEventTime());
+            return;
+        }
+        if (motionCoalescer != null && motionCoalescer.putMotion(event.getControllerId(),
+                event.getAxisValue(Controller.AXIS_X), event.getAxisValue(Controller.AXIS_Y),
+                event.getAxisValue(Controller.AXIS_Z), event.getAxisValue(Controller.AXIS_RZ),
+                event.getAxisValue(Controller.AXIS_LTRIGGER), event.getAxisValue(Controller.AXIS_RTRIGGER),
+                event.getEventTime())) {
+            return;
+        }
+        sendMotion(event.getControllerId(),
                 event.getAxisValue(Controller.AXIS_X), event.getAxisValue(Controller.AXIS_Y),
                 event.getAxisValue(Controller.AXIS_Z), event.getAxisValue(Controller.AXIS_RZ),
                 event.getAxisValue(Controller.AXIS_LTRIGGER), event.getAxisValue(Controller.AXIS_RTRIGGER),
@@ -59,13 +149,36 @@ final class MOGAHelper implements ControllerListener {
 
     @Override
     public void onStateEvent(StateEvent event) {
-        stateEvent(nativeUserData, event.getState(), event.getAction());
+        if (eventRing != null) {
+            eventRing.putState(event.getControllerId(), event.getState(), event.getAction(), event.getEventTime());
+            return;
+        }
+        if (motionCoalescer != null)
+            motionCoalescer.flush(event.getControllerId());
+        if (multiController) {
+            controllerStateEvent(nativeUserData, event.getControllerId(), event.getState(), event.getAction());
+        } else {
+            stateEvent(nativeUserData, event.getState(), event.getAction());
+        }
+    }
+
+    private void sendMotion(int controllerId, float x, float y, float z, float rz,
+                            float lTrigger, float rTrigger, long time) {
+        if (multiController) {
+            controllerMotionEvent(nativeUserData, controllerId, x, y, z, rz, lTrigger, rTrigger, time);
+        } else {
+            motionEvent(nativeUserData, x, y, z, rz, lTrigger, rTrigger, time);
+        }
     }
 
     int getState(int state) {
         return controller.getState(state);
     }
 
+    int getState(int controllerId, int state) {
+        return controller.getState(controllerId, state);
+    }
+
     void onPause() {
         controller.onPause();
     }
@@ -75,6 +188,8 @@ final class MOGAHelper implements ControllerListener {
     }
 
     void exit() {
+        if (motionCoalescer != null)
+            motionCoalescer.cancel();
         controller.exit();
         controller = null;
     }
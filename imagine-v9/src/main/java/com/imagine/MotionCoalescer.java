@@ -0,0 +1,126 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.view.Choreographer;
+
+import com.bda.controller.Controller;
+
+// Merges analog motion updates so each controller delivers at most one axis
+// state per frame. Pending motion is flushed on the next Choreographer frame,
+// or right away before a key event so motion and keys stay in order. An
+// update that would undo a pending threshold crossing (a quick trigger pull
+// and release within one frame) flushes the pending state first so the edge
+// isn't lost. Must be used from a single looper thread.
+final class MotionCoalescer implements Choreographer.FrameCallback {
+    interface Sink {
+        void onMotion(int controllerId, float[] axes, int offset, long time);
+    }
+
+    private static final String logTag = "MotionCoalescer";
+    static final int AXIS_COUNT = 6;
+    static final float EDGE_THRESHOLD = 0.5f;
+    private final Sink sink;
+    private final float[] pending = new float[Controller.MAX_CONTROLLERS * AXIS_COUNT];
+    private final float[] sent = new float[Controller.MAX_CONTROLLERS * AXIS_COUNT];
+    private final long[] pendingTime = new long[Controller.MAX_CONTROLLERS];
+    private int pendingMask;
+    private boolean framePosted;
+
+    MotionCoalescer(Sink sink) {
+        this.sink = sink;
+    }
+
+    // controllerId is 1-based as reported by the controller service, returns
+    // false if it's out of range and the caller should deliver directly
+    boolean putMotion(int controllerId, float x, float y, float z, float rz,
+                      float lTrigger, float rTrigger, long time) {
+        int idx = controllerId - 1;
+        if (idx < 0 || idx >= Controller.MAX_CONTROLLERS)
+            return false;
+        int offset = idx * AXIS_COUNT;
+        if ((pendingMask & (1 << idx)) != 0 &&
+                (undoesEdge(offset, x) || undoesEdge(offset + 1, y) || undoesEdge(offset + 2, z) ||
+                        undoesEdge(offset + 3, rz) || undoesEdge(offset + 4, lTrigger) ||
+                        undoesEdge(offset + 5, rTrigger))) {
+            flush(idx);
+        }
+        pending[offset] = x;
+        pending[offset + 1] = y;
+        pending[offset + 2] = z;
+        pending[offset + 3] = rz;
+        pending[offset + 4] = lTrigger;
+        pending[offset + 5] = rTrigger;
+        pendingTime[idx] = time;
+        pendingMask |= 1 << idx;
+        if (!framePosted) {
+            framePosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        return true;
+    }
+
+    // Deliver a controller's pending motion, call before forwarding a key event from it
+    void flush(int controllerId) {
+        int idx = controllerId - 1;
+        if (idx < 0 || idx >= Controller.MAX_CONTROLLERS)
+            return;
+        flushIndex(idx);
+    }
+
+    void flushAll() {
+        for (int idx = 0; pendingMask != 0 && idx < Controller.MAX_CONTROLLERS; idx++) {
+            flushIndex(idx);
+        }
+    }
+
+    // Drop pending motion and the frame callback, such as when the listener is detached
+    void cancel() {
+        pendingMask = 0;
+        if (framePosted) {
+            framePosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        flushAll();
+    }
+
+    private void flushIndex(int idx) {
+        int bit = 1 << idx;
+        if ((pendingMask & bit) == 0)
+            return;
+        pendingMask &= ~bit;
+        int offset = idx * AXIS_COUNT;
+        System.arraycopy(pending, offset, sent, offset, AXIS_COUNT);
+        sink.onMotion(idx + 1, pending, offset, pendingTime[idx]);
+    }
+
+    // True if the pending value crossed the threshold relative to the last sent
+    // value and the new one crosses back
+    private boolean undoesEdge(int i, float value) {
+        int sentSide = side(sent[i]);
+        int pendingSide = side(pending[i]);
+        return pendingSide != sentSide && side(value) != pendingSide;
+    }
+
+    private static int side(float value) {
+        return value > EDGE_THRESHOLD ? 1 : value < -EDGE_THRESHOLD ? -1 : 0;
+    }
+}
@@ -0,0 +1,65 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Interns text Paints by (size, bold, typeface family, hinting) and hands out
+// small integer handles so native code can refer to and compare paints
+// cheaply. Each handle also has a stable string key used by the glyph caches.
+final class PaintRegistry {
+    static final int HINTING_DEFAULT = -1;
+    private final ArrayList<Paint> paints = new ArrayList<>();
+    private final ArrayList<String> keys = new ArrayList<>();
+    private final HashMap<String, Integer> handles = new HashMap<>();
+
+    int handle(int size, boolean isBold, String family, int hinting) {
+        String key = (family != null ? family : "default") + (isBold ? "-bold" : "") +
+                "_s" + size + (hinting != HINTING_DEFAULT ? "_h" + hinting : "");
+        Integer handle = handles.get(key);
+        if (handle != null)
+            return handle;
+        Paint p = new Paint();
+        if (family != null) {
+            p.setTypeface(Typeface.create(family, isBold ? Typeface.BOLD : Typeface.NORMAL));
+        } else if (isBold) {
+            p.setTypeface(Typeface.DEFAULT_BOLD);
+        }
+        p.setAntiAlias(true);
+        p.setTextSize(size);
+        p.setColor(0xffffffff);
+        if (hinting != HINTING_DEFAULT) {
+            p.setHinting(hinting);
+        }
+        int newHandle = paints.size();
+        paints.add(p);
+        keys.add(key);
+        handles.put(key, newHandle);
+        return newHandle;
+    }
+
+    Paint paint(int handle) {
+        return paints.get(handle);
+    }
+
+    String key(int handle) {
+        return keys.get(handle);
+    }
+}
@@ -0,0 +1,39 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+// Tells the system how long each frame's work took against the frame budget
+// so CPU clocks follow the actual emulation load. Native code calls these
+// once per frame from the thread doing the work.
+interface PerformanceHint {
+    void reportActualWorkDuration(long durationNanos);
+
+    void updateTargetWorkDuration(long targetNanos);
+
+    void close();
+
+    // Used when hint sessions aren't available
+    PerformanceHint NONE = new PerformanceHint() {
+        @Override
+        public void reportActualWorkDuration(long durationNanos) {}
+
+        @Override
+        public void updateTargetWorkDuration(long targetNanos) {}
+
+        @Override
+        public void close() {}
+    };
+}
@@ -0,0 +1,74 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PerformanceHintManager;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+// PerformanceHintManager.Session from Android 12
+@RequiresApi(api = Build.VERSION_CODES.S)
+final class PerformanceHintSession implements PerformanceHint {
+    private static final String logTag = "PerformanceHintSession";
+    private final PerformanceHintManager.Session session;
+
+    private PerformanceHintSession(PerformanceHintManager.Session session) {
+        this.session = session;
+    }
+
+    // Returns PerformanceHint.NONE if the device doesn't support hint sessions
+    // or the session can't be created, such as for threads the app doesn't own
+    static PerformanceHint create(Context ctx, int[] threadIds, long targetNanos) {
+        if (threadIds == null || threadIds.length == 0)
+            return NONE;
+        PerformanceHintManager manager =
+                (PerformanceHintManager) ctx.getSystemService(Context.PERFORMANCE_HINT_SERVICE);
+        if (manager == null)
+            return NONE;
+        PerformanceHintManager.Session session;
+        try {
+            session = manager.createHintSession(threadIds, targetNanos);
+        } catch (RuntimeException e) {
+            Log.w(logTag, "error creating hint session: " + e);
+            return NONE;
+        }
+        if (session == null)
+            return NONE;
+        return new PerformanceHintSession(session);
+    }
+
+    @Override
+    public void reportActualWorkDuration(long durationNanos) {
+        if (durationNanos <= 0)
+            return;
+        session.reportActualWorkDuration(durationNanos);
+    }
+
+    @Override
+    public void updateTargetWorkDuration(long targetNanos) {
+        if (targetNanos <= 0)
+            return;
+        session.updateTargetWorkDuration(targetNanos);
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+}
@@ -0,0 +1,77 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.annotation.RequiresApi;
+
+// Thermal status change callbacks from PowerManager, plus a periodic re-report
+// so time based policy decisions progress, which includes the headroom forecast
+// on Android 11+ since it rises well before the status changes
+@RequiresApi(api = Build.VERSION_CODES.Q)
+final class PowerManagerThermalSource implements ThermalSource, PowerManager.OnThermalStatusChangedListener {
+    private static final String logTag = "PowerManagerThermalSource";
+    private static final long POLL_MILLIS = 10000; // the system rate limits headroom queries
+    private static final int HEADROOM_FORECAST_SECONDS = 10;
+    private final PowerManager powerManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+    private int status;
+    private float headroom = Float.NaN;
+    private final Runnable poll = new Runnable() {
+        public void run() {
+            if (listener == null)
+                return;
+            if (Build.VERSION.SDK_INT >= 30)
+                headroom = powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+            listener.onThermalChanged(status, headroom, SystemClock.uptimeMillis());
+            handler.postDelayed(this, POLL_MILLIS);
+        }
+    };
+
+    PowerManagerThermalSource(PowerManager powerManager) {
+        this.powerManager = powerManager;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        status = powerManager.getCurrentThermalStatus();
+        powerManager.addThermalStatusListener(this);
+        handler.post(poll);
+    }
+
+    @Override
+    public void stop() {
+        if (listener == null)
+            return;
+        powerManager.removeThermalStatusListener(this);
+        handler.removeCallbacks(poll);
+        listener = null;
+    }
+
+    @Override
+    public void onThermalStatusChanged(int status) {
+        this.status = status;
+        if (listener != null)
+            listener.onThermalChanged(status, headroom, SystemClock.uptimeMillis());
+    }
+}
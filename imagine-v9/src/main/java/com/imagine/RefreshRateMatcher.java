@@ -0,0 +1,117 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.os.Build;
+import android.view.Display;
+import android.view.Surface;
+import android.view.Window;
+import android.view.WindowManager;
+
+import androidx.annotation.RequiresApi;
+
+// Picks the display mode that best shows content running at a fixed rate,
+// such as NES NTSC at 60.0988Hz. A mode is best when each content frame can
+// be held for a whole number of vsyncs after a small emulation speed change
+// (resampling), otherwise frames get shown for uneven vsync counts (judder).
+@RequiresApi(api = Build.VERSION_CODES.M)
+final class RefreshRateMatcher {
+    private static final String logTag = "RefreshRateMatcher";
+    static final float MAX_RESAMPLE = 0.02f; // largest speed change usable to lock to vsync
+    static final int MAX_PATTERN_LENGTH = 16;
+
+    static final class Match {
+        final Display.Mode mode;
+        final float cost;
+
+        Match(Display.Mode mode, float cost) {
+            this.mode = mode;
+            this.cost = cost;
+        }
+    }
+
+    // Lower is better. Lockable modes always beat juddering ones.
+    static float cost(float displayRate, float contentRate) {
+        float ratio = displayRate / contentRate;
+        long repeats = Math.max(1, Math.round(ratio));
+        float resample = Math.abs(displayRate / repeats - contentRate) / contentRate;
+        if (resample <= MAX_RESAMPLE)
+            return resample;
+        if (ratio < 1.f) {
+            // display slower than content, frames would be dropped
+            return 3.f + (1.f - ratio);
+        }
+        float judder = Math.abs(ratio - repeats);
+        return 1.f + judder;
+    }
+
+    static Match bestMode(Display display, float contentRate) {
+        Display.Mode current = display.getMode();
+        Display.Mode best = null;
+        float bestCost = Float.MAX_VALUE;
+        for (Display.Mode mode : display.getSupportedModes()) {
+            if (mode.getPhysicalWidth() != current.getPhysicalWidth() ||
+                    mode.getPhysicalHeight() != current.getPhysicalHeight())
+                continue;
+            float cost = cost(mode.getRefreshRate(), contentRate);
+            // prefer lower rates for power, and staying on the current mode since switching blanks the screen
+            cost += mode.getRefreshRate() * 1e-5f;
+            if (mode.getModeId() == current.getModeId())
+                cost -= 1e-4f;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = mode;
+            }
+        }
+        return best != null ? new Match(best, bestCost) : new Match(current, cost(current.getRefreshRate(), contentRate));
+    }
+
+    // Number of vsyncs each content frame is shown for over one repeat cycle,
+    // a single entry when the content can be locked to a whole multiple
+    static int[] repeatPattern(float displayRate, float contentRate) {
+        float ratio = displayRate / contentRate;
+        int repeats = Math.max(1, Math.round(ratio));
+        if (Math.abs(displayRate / repeats - contentRate) / contentRate <= MAX_RESAMPLE)
+            return new int[]{repeats};
+        int length = MAX_PATTERN_LENGTH;
+        for (int i = 1; i <= MAX_PATTERN_LENGTH; i++) {
+            float vsyncs = i * ratio;
+            if (Math.abs(vsyncs - Math.round(vsyncs)) < 0.01f) {
+                length = i;
+                break;
+            }
+        }
+        int[] pattern = new int[length];
+        for (int i = 0; i < length; i++) {
+            pattern[i] = Math.round((i + 1) * ratio) - Math.round(i * ratio);
+        }
+        return pattern;
+    }
+
+    // Request the mode on the window and, on Android 11+, tell the compositor the
+    // content rate. A contentRate of 0 clears both requests.
+    static void apply(Window win, Surface surface, Display.Mode mode, float contentRate) {
+        WindowManager.LayoutParams params = win.getAttributes();
+        int modeId = contentRate > 0 ? mode.getModeId() : 0;
+        if (params.preferredDisplayModeId != modeId) {
+            params.preferredDisplayModeId = modeId;
+            win.setAttributes(params);
+        }
+        if (Build.VERSION.SDK_INT >= 30 && surface != null && surface.isValid()) {
+            surface.setFrameRate(contentRate, Surface.FRAME_RATE_COMPATIBILITY_FIXED_SOURCE);
+        }
+    }
+}
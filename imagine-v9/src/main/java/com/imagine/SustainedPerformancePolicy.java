@@ -0,0 +1,164 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Turns sustained performance mode on when frame times get unsteady during
+// play, which usually means the CPU/GPU clocks are bouncing, and off again in
+// menus. Frame times are measured over a sliding window once a warm-up period
+// has passed so loading hitches don't count. Once on it stays on until the
+// next menu so clocks don't flip mid-game. Transitions are kept in a small log
+// for diagnostics.
+final class SustainedPerformancePolicy {
+    interface Listener {
+        // Called from the frame thread or the thread calling setInMenu()/stop()
+        void onSustainedPerformanceMode(boolean on);
+    }
+
+    private static final String logTag = "SustainedPerfPolicy";
+    static final int WINDOW = 120;
+    static final int WARM_UP_FRAMES = 300;
+    static final double DEFAULT_STD_DEV_THRESHOLD_MS = 2.0;
+    static final int REASON_VARIANCE = 0;
+    static final int REASON_MENU = 1;
+    static final int REASON_STOPPED = 2;
+    private static final int LOG_SIZE = 16;
+
+    private final Listener listener;
+    private final double[] window = new double[WINDOW];
+    private int windowCount, nextSample;
+    private double sum, sumSq;
+    private int warmUpFrames = WARM_UP_FRAMES;
+    private double varianceThreshold = DEFAULT_STD_DEV_THRESHOLD_MS * DEFAULT_STD_DEV_THRESHOLD_MS;
+    private boolean inMenu = true;
+    private boolean on;
+    // transition log ring
+    private final long[] logTimeMillis = new long[LOG_SIZE];
+    private final boolean[] logOn = new boolean[LOG_SIZE];
+    private final int[] logReason = new int[LOG_SIZE];
+    private final float[] logStdDevMs = new float[LOG_SIZE];
+    private int logCount, nextLog;
+
+    SustainedPerformancePolicy(Listener listener) {
+        this.listener = listener;
+    }
+
+    void setStdDevThreshold(double ms) {
+        varianceThreshold = ms * ms;
+    }
+
+    // Native code marks when a menu is shown, leaving it starts a new warm-up.
+    // A new policy starts in the menu state and stays off until setInMenu(false).
+    // Called from any thread, the listener may then run on the caller's thread.
+    synchronized void setInMenu(boolean inMenu) {
+        this.inMenu = inMenu;
+        if (inMenu && on)
+            transition(false, REASON_MENU, 0);
+    }
+
+    boolean isOn() {
+        return on;
+    }
+
+    // Fed with consecutive frame deltas from ChoreographerHelper
+    synchronized void onFrame(long deltaNanos) {
+        if (inMenu) {
+            if (on)
+                transition(false, REASON_MENU, 0);
+            warmUpFrames = WARM_UP_FRAMES;
+            clearWindow();
+            return;
+        }
+        if (warmUpFrames > 0) {
+            warmUpFrames--;
+            return;
+        }
+        double ms = deltaNanos / 1e6;
+        if (windowCount == WINDOW) {
+            double old = window[nextSample];
+            sum -= old;
+            sumSq -= old * old;
+        } else {
+            windowCount++;
+        }
+        window[nextSample] = ms;
+        nextSample = (nextSample + 1) % WINDOW;
+        sum += ms;
+        sumSq += ms * ms;
+        if (on || windowCount < WINDOW)
+            return;
+        double mean = sum / WINDOW;
+        double variance = Math.max(0, sumSq / WINDOW - mean * mean);
+        if (variance > varianceThreshold)
+            transition(true, REASON_VARIANCE, Math.sqrt(variance));
+    }
+
+    // Drop sustained mode, such as when the activity stops
+    synchronized void stop() {
+        if (on)
+            transition(false, REASON_STOPPED, 0);
+        warmUpFrames = WARM_UP_FRAMES;
+        clearWindow();
+    }
+
+    synchronized String transitionLog() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < logCount; i++) {
+            int idx = (nextLog - logCount + i + LOG_SIZE) % LOG_SIZE;
+            sb.append(logTimeMillis[idx]).append(' ')
+                    .append(logOn[idx] ? "on" : "off").append(' ')
+                    .append(reasonName(logReason[idx]));
+            if (logReason[idx] == REASON_VARIANCE)
+                sb.append(" stddev:").append(logStdDevMs[idx]).append("ms");
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void transition(boolean on, int reason, double stdDevMs) {
+        this.on = on;
+        logTimeMillis[nextLog] = SystemClock.uptimeMillis();
+        logOn[nextLog] = on;
+        logReason[nextLog] = reason;
+        logStdDevMs[nextLog] = (float) stdDevMs;
+        nextLog = (nextLog + 1) % LOG_SIZE;
+        if (logCount < LOG_SIZE)
+            logCount++;
+        Log.i(logTag, "sustained performance " + (on ? "on" : "off") + ", " + reasonName(reason)
+                + (reason == REASON_VARIANCE ? " stddev:" + (float) stdDevMs + "ms" : ""));
+        listener.onSustainedPerformanceMode(on);
+    }
+
+    private void clearWindow() {
+        windowCount = 0;
+        nextSample = 0;
+        sum = 0;
+        sumSq = 0;
+    }
+
+    private static String reasonName(int reason) {
+        switch (reason) {
+            case REASON_VARIANCE:
+                return "variance";
+            case REASON_MENU:
+                return "menu";
+            default:
+                return "stopped";
+        }
+    }
+}
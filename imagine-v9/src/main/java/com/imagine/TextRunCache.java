@@ -0,0 +1,167 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU of whole strings rasterized into a single ALPHA_8 bitmap, bounded by
+// the total bitmap size. Lookups reuse a probe key so hits don't allocate.
+final class TextRunCache {
+    private static final String logTag = "TextRunCache";
+
+    static final class TextRun {
+        final Bitmap bitmap;
+        final int xOff; // pen position to bitmap left edge
+        final int yOff; // baseline to bitmap top edge
+        final int advance;
+        final float[] advances; // per char advances including kerning
+
+        TextRun(Bitmap bitmap, int xOff, int yOff, int advance, float[] advances) {
+            this.bitmap = bitmap;
+            this.xOff = xOff;
+            this.yOff = yOff;
+            this.advance = advance;
+            this.advances = advances;
+        }
+
+        Bitmap bitmap() {
+            return bitmap;
+        }
+
+        int xOffset() {
+            return xOff;
+        }
+
+        int yOffset() {
+            return yOff;
+        }
+
+        int advance() {
+            return advance;
+        }
+
+        int byteSize() {
+            return bitmap != null ? bitmap.getByteCount() : 0;
+        }
+    }
+
+    private static final class Key {
+        String text;
+        int paintHandle;
+
+        Key(String text, int paintHandle) {
+            this.text = text;
+            this.paintHandle = paintHandle;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return paintHandle == k.paintHandle && text.equals(k.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + paintHandle;
+        }
+    }
+
+    private final LinkedHashMap<Key, TextRun> runs = new LinkedHashMap<>(64, 0.75f, true);
+    private final Key probe = new Key("", 0);
+    private final Canvas canvas = new Canvas();
+    private final Rect rect = new Rect();
+    private int budgetBytes;
+    private int usedBytes;
+    private int hits, misses;
+
+    TextRunCache(int budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    TextRun get(String text, int paintHandle, Paint paint) {
+        probe.text = text;
+        probe.paintHandle = paintHandle;
+        TextRun run = runs.get(probe);
+        if (run != null) {
+            hits++;
+            return run;
+        }
+        misses++;
+        run = rasterize(text, paint);
+        runs.put(new Key(text, paintHandle), run);
+        usedBytes += run.byteSize();
+        trim();
+        return run;
+    }
+
+    private TextRun rasterize(String text, Paint paint) {
+        int len = text.length();
+        float[] advances = new float[len];
+        paint.getTextWidths(text, 0, len, advances);
+        float advance = 0;
+        for (float w : advances) {
+            advance += w;
+        }
+        paint.getTextBounds(text, 0, len, rect);
+        if (rect.isEmpty())
+            return new TextRun(null, 0, 0, (int) advance, advances);
+        Bitmap bitmap = Bitmap.createBitmap(rect.width(), rect.height(), Bitmap.Config.ALPHA_8);
+        canvas.setBitmap(bitmap);
+        canvas.drawText(text, 0, len, -rect.left, -rect.top, paint);
+        canvas.setBitmap(null);
+        return new TextRun(bitmap, rect.left, -rect.top, (int) advance, advances);
+    }
+
+    // Evicted bitmaps aren't recycled since native code may still reference them
+    private void trim() {
+        Iterator<Map.Entry<Key, TextRun>> it = runs.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            usedBytes -= it.next().getValue().byteSize();
+            it.remove();
+        }
+    }
+
+    void setBudget(int bytes) {
+        budgetBytes = bytes;
+        trim();
+    }
+
+    void clear() {
+        runs.clear();
+        usedBytes = 0;
+    }
+
+    int usedBytes() {
+        return usedBytes;
+    }
+
+    int hits() {
+        return hits;
+    }
+
+    int misses() {
+        return misses;
+    }
+}
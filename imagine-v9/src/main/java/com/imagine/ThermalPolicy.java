@@ -0,0 +1,134 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+// Maps thermal status and headroom to a quality tier, trading the video filter,
+// frame skip and audio buffering for lower load as the device heats up. Tiers
+// rise as soon as readings call for it but only fall one step at a time after
+// readings have stayed lower for COOL_DOWN_MILLIS, so the shader doesn't flip
+// back and forth near a threshold. Has no Android dependencies so it can be
+// driven by a fake ThermalSource off device.
+final class ThermalPolicy implements ThermalSource.Listener {
+    interface Listener {
+        void onTierChanged(int tier, int filter, int frameSkip, int audioBufferStrategy);
+    }
+
+    private static final String logTag = "ThermalPolicy";
+    static final int TIER_FULL = 0;
+    static final int TIER_REDUCED = 1;
+    static final int TIER_LOW = 2;
+    static final int TIER_MINIMUM = 3;
+    // filter values
+    static final int FILTER_DIRECT = 0;
+    static final int FILTER_SCALE2X = 1;
+    static final int FILTER_HQ2X = 2;
+    // audio buffer strategies, from lowest latency to most underrun resistant
+    static final int AUDIO_LOW_LATENCY = 0;
+    static final int AUDIO_BALANCED = 1;
+    static final int AUDIO_SAFE = 2;
+    // PowerManager.THERMAL_STATUS_* values
+    static final int STATUS_MODERATE = 2;
+    static final int STATUS_SEVERE = 3;
+    static final int STATUS_CRITICAL = 4;
+    static final float HEADROOM_REDUCED = 0.85f;
+    static final float HEADROOM_LOW = 0.95f;
+    static final long COOL_DOWN_MILLIS = 30000;
+
+    private static final int[] TIER_FILTER = {FILTER_HQ2X, FILTER_SCALE2X, FILTER_DIRECT, FILTER_DIRECT};
+    private static final int[] TIER_FRAME_SKIP = {0, 0, 1, 2};
+    private static final int[] TIER_AUDIO = {AUDIO_LOW_LATENCY, AUDIO_BALANCED, AUDIO_BALANCED, AUDIO_SAFE};
+
+    private final ThermalSource source;
+    private final Listener listener;
+    private int tier = TIER_FULL;
+    private long coolingSinceMillis = -1;
+
+    ThermalPolicy(ThermalSource source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    void start() {
+        source.start(this);
+    }
+
+    void stop() {
+        source.stop();
+    }
+
+    int tier() {
+        return tier;
+    }
+
+    static int filter(int tier) {
+        return TIER_FILTER[tier];
+    }
+
+    static int frameSkip(int tier) {
+        return TIER_FRAME_SKIP[tier];
+    }
+
+    static int audioBufferStrategy(int tier) {
+        return TIER_AUDIO[tier];
+    }
+
+    // Tier the current readings call for on their own
+    static int targetTier(int status, float headroom) {
+        int target = TIER_FULL;
+        if (status >= STATUS_CRITICAL)
+            target = TIER_MINIMUM;
+        else if (status >= STATUS_SEVERE)
+            target = TIER_LOW;
+        else if (status >= STATUS_MODERATE)
+            target = TIER_REDUCED;
+        if (!Float.isNaN(headroom)) {
+            if (headroom >= HEADROOM_LOW)
+                target = Math.max(target, TIER_LOW);
+            else if (headroom >= HEADROOM_REDUCED)
+                target = Math.max(target, TIER_REDUCED);
+        }
+        return target;
+    }
+
+    @Override
+    public void onThermalChanged(int status, float headroom, long timeMillis) {
+        update(status, headroom, timeMillis);
+    }
+
+    // Apply a reading taken at nowMillis, returns the resulting tier
+    int update(int status, float headroom, long nowMillis) {
+        int target = targetTier(status, headroom);
+        int newTier = tier;
+        if (target > tier) {
+            newTier = target;
+            coolingSinceMillis = -1;
+        } else if (target < tier) {
+            if (coolingSinceMillis < 0) {
+                coolingSinceMillis = nowMillis;
+            } else if (nowMillis - coolingSinceMillis >= COOL_DOWN_MILLIS) {
+                newTier = tier - 1;
+                coolingSinceMillis = target < newTier ? nowMillis : -1;
+            }
+        } else {
+            coolingSinceMillis = -1;
+        }
+        if (newTier != tier) {
+            tier = newTier;
+            listener.onTierChanged(tier, filter(tier), frameSkip(tier), audioBufferStrategy(tier));
+        }
+        return tier;
+    }
+}
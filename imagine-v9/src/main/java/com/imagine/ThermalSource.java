@@ -0,0 +1,31 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+// Supplies device thermal readings to ThermalPolicy, so the policy can be
+// driven by something other than PowerManager
+interface ThermalSource {
+    interface Listener {
+        // status is one of the PowerManager.THERMAL_STATUS_* values, headroom is
+        // the forecast fraction of the throttling threshold or NaN if unknown,
+        // timeMillis is when the reading was taken on a monotonic clock
+        void onThermalChanged(int status, float headroom, long timeMillis);
+    }
+
+    void start(Listener listener);
+
+    void stop();
+}
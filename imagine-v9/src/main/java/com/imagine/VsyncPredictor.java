@@ -0,0 +1,138 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+// Estimates the true vsync period and phase from frame timestamps by a least
+// squares fit of timestamp against vsync index over a sliding window. Each
+// timestamp is assigned the nearest vsync index so missed frames don't skew
+// the period, timestamps too far from the model are rejected, and since old
+// samples leave the window the fit follows clock drift.
+final class VsyncPredictor {
+    private static final int WINDOW = 32;
+    private static final int MIN_FIT_SAMPLES = 6;
+    private static final int MAX_REJECTS = 8; // consecutive outliers before re-syncing
+    private static final long MAX_GAP_PERIODS = 32;
+    private final long[] sampleIdx = new long[WINDOW];
+    private final long[] sampleTime = new long[WINDOW];
+    private int samples, nextSample;
+    private int rejects;
+    private long nominalPeriodNanos;
+    private volatile long newNominalPeriodNanos;
+    private long lastIdx;
+    // model: vsync k happens at phaseNanos + (k - lastIdx) * periodNanos
+    private double periodNanos;
+    private long phaseNanos;
+
+    VsyncPredictor(long nominalPeriodNanos) {
+        this.nominalPeriodNanos = nominalPeriodNanos;
+        reset();
+    }
+
+    // Can be called from any thread, takes effect on the next update()
+    void setNominalPeriod(long nominalPeriodNanos) {
+        newNominalPeriodNanos = nominalPeriodNanos;
+    }
+
+    void reset() {
+        samples = 0;
+        nextSample = 0;
+        rejects = 0;
+        lastIdx = 0;
+        phaseNanos = 0;
+        periodNanos = nominalPeriodNanos;
+    }
+
+    void update(long timeNanos) {
+        long newNominalPeriod = newNominalPeriodNanos;
+        if (newNominalPeriod != 0) {
+            newNominalPeriodNanos = 0;
+            nominalPeriodNanos = newNominalPeriod;
+            reset();
+        }
+        if (samples == 0) {
+            addSample(0, timeNanos);
+            phaseNanos = timeNanos;
+            return;
+        }
+        double periods = (timeNanos - phaseNanos) / periodNanos;
+        if (periods < 0.5) // repeated or out of order timestamp
+            return;
+        if (periods > MAX_GAP_PERIODS) {
+            // after a long pause the index may be ambiguous, start over
+            reset();
+            update(timeNanos);
+            return;
+        }
+        long idx = lastIdx + Math.round(periods);
+        double residual = timeNanos - (phaseNanos + (idx - lastIdx) * periodNanos);
+        if (Math.abs(residual) > periodNanos * 0.2) {
+            if (++rejects > MAX_REJECTS) {
+                reset();
+                update(timeNanos);
+            }
+            return;
+        }
+        rejects = 0;
+        addSample(idx, timeNanos);
+        fit();
+    }
+
+    private void addSample(long idx, long timeNanos) {
+        sampleIdx[nextSample] = idx;
+        sampleTime[nextSample] = timeNanos;
+        nextSample = (nextSample + 1) % WINDOW;
+        if (samples < WINDOW)
+            samples++;
+        lastIdx = idx;
+    }
+
+    private void fit() {
+        int newest = (nextSample + WINDOW - 1) % WINDOW;
+        long baseIdx = sampleIdx[newest];
+        long baseTime = sampleTime[newest];
+        // work relative to the newest sample to keep precision
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < samples; i++) {
+            double x = sampleIdx[i] - baseIdx;
+            double y = sampleTime[i] - baseTime;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double denom = samples * sxx - sx * sx;
+        double period = periodNanos;
+        if (samples >= MIN_FIT_SAMPLES && denom > 0) {
+            double fitted = (samples * sxy - sx * sy) / denom;
+            // ignore fits far from the display's reported rate
+            if (fitted > nominalPeriodNanos * 0.8 && fitted < nominalPeriodNanos * 1.2)
+                period = fitted;
+        }
+        double intercept = (sy - period * sx) / samples;
+        periodNanos = period;
+        phaseNanos = baseTime + Math.round(intercept);
+    }
+
+    long periodNanos() {
+        return Math.round(periodNanos);
+    }
+
+    // Predicted time of the vsync after the one that produced frameTimeNanos
+    long nextVsyncNanos(long frameTimeNanos) {
+        double periods = Math.rint((frameTimeNanos - phaseNanos) / periodNanos) + 1;
+        return phaseNanos + Math.round(periods * periodNanos);
+    }
+}
@@ -0,0 +1,34 @@
+package com.bda.controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MotionEventFormatTest {
+    @Test
+    public void compactHeaderIsNeverALegacyCount() {
+        assertTrue(MotionEvent.compactHeader(0, 0) < 0);
+        assertTrue(MotionEvent.compactHeader(MotionEvent.SLOT_MASK, MotionEvent.SLOT_MASK) < 0);
+    }
+
+    @Test
+    public void compactHeaderRoundTripsMasks() {
+        for (int axisMask = 0; axisMask <= MotionEvent.SLOT_MASK; axisMask++) {
+            for (int precisionMask = 0; precisionMask <= MotionEvent.SLOT_MASK; precisionMask++) {
+                int header = MotionEvent.compactHeader(axisMask, precisionMask);
+                assertEquals(MotionEvent.COMPACT_VERSION, MotionEvent.compactVersion(header));
+                assertEquals(axisMask, MotionEvent.compactAxisMask(header));
+                assertEquals(precisionMask, MotionEvent.compactPrecisionMask(header));
+            }
+        }
+    }
+
+    @Test
+    public void axisSlotsFollowAxisTable() {
+        for (int slot = 0; slot < MotionEvent.SLOT_COUNT; slot++) {
+            assertEquals(slot, MotionEvent.axisSlot(MotionEvent.AXES[slot]));
+        }
+        assertEquals(-1, MotionEvent.axisSlot(2));
+    }
+}
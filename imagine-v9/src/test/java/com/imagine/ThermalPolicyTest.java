@@ -0,0 +1,129 @@
+/*  This file is part of Imagine.
+
+	Imagine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	Imagine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with Imagine.  If not, see <http://www.gnu.org/licenses/> */
+
+package com.imagine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThermalPolicyTest {
+    private static final int STATUS_NONE = 0;
+    private static final int STATUS_LIGHT = 1;
+
+    private static final class FakeThermalSource implements ThermalSource {
+        Listener listener;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        void report(int status, float headroom, long timeMillis) {
+            listener.onThermalChanged(status, headroom, timeMillis);
+        }
+    }
+
+    private FakeThermalSource source;
+    private ThermalPolicy policy;
+    private int changes;
+    private int lastTier, lastFilter, lastFrameSkip, lastAudio;
+
+    @Before
+    public void setUp() {
+        source = new FakeThermalSource();
+        policy = new ThermalPolicy(source, new ThermalPolicy.Listener() {
+            public void onTierChanged(int tier, int filter, int frameSkip, int audioBufferStrategy) {
+                changes++;
+                lastTier = tier;
+                lastFilter = filter;
+                lastFrameSkip = frameSkip;
+                lastAudio = audioBufferStrategy;
+            }
+        });
+        policy.start();
+    }
+
+    @Test
+    public void staysAtFullQualityWhenCool() {
+        source.report(STATUS_NONE, Float.NaN, 0);
+        source.report(STATUS_LIGHT, 0.5f, 1000);
+        assertEquals(ThermalPolicy.TIER_FULL, policy.tier());
+        assertEquals(0, changes);
+    }
+
+    @Test
+    public void risesImmediately() {
+        source.report(ThermalPolicy.STATUS_MODERATE, Float.NaN, 0);
+        assertEquals(ThermalPolicy.TIER_REDUCED, policy.tier());
+        assertEquals(ThermalPolicy.FILTER_SCALE2X, lastFilter);
+
+        source.report(ThermalPolicy.STATUS_CRITICAL, Float.NaN, 1);
+        assertEquals(2, changes);
+        assertEquals(ThermalPolicy.TIER_MINIMUM, lastTier);
+        assertEquals(ThermalPolicy.FILTER_DIRECT, lastFilter);
+        assertEquals(2, lastFrameSkip);
+        assertEquals(ThermalPolicy.AUDIO_SAFE, lastAudio);
+    }
+
+    @Test
+    public void headroomRaisesTierBeforeStatus() {
+        source.report(STATUS_NONE, ThermalPolicy.HEADROOM_REDUCED, 0);
+        assertEquals(ThermalPolicy.TIER_REDUCED, policy.tier());
+        source.report(STATUS_NONE, ThermalPolicy.HEADROOM_LOW, 1);
+        assertEquals(ThermalPolicy.TIER_LOW, policy.tier());
+        assertEquals(1, lastFrameSkip);
+    }
+
+    @Test
+    public void coolsDownOneTierPerInterval() {
+        source.report(ThermalPolicy.STATUS_CRITICAL, Float.NaN, 0);
+        assertEquals(ThermalPolicy.TIER_MINIMUM, policy.tier());
+
+        source.report(STATUS_NONE, Float.NaN, 1000);
+        source.report(STATUS_NONE, Float.NaN, 1000 + ThermalPolicy.COOL_DOWN_MILLIS - 1);
+        assertEquals(ThermalPolicy.TIER_MINIMUM, policy.tier());
+
+        source.report(STATUS_NONE, Float.NaN, 1000 + ThermalPolicy.COOL_DOWN_MILLIS);
+        assertEquals(ThermalPolicy.TIER_LOW, policy.tier());
+
+        source.report(STATUS_NONE, Float.NaN, 1000 + 2 * ThermalPolicy.COOL_DOWN_MILLIS);
+        assertEquals(ThermalPolicy.TIER_REDUCED, policy.tier());
+
+        source.report(STATUS_NONE, Float.NaN, 1000 + 3 * ThermalPolicy.COOL_DOWN_MILLIS);
+        assertEquals(ThermalPolicy.TIER_FULL, policy.tier());
+        assertEquals(ThermalPolicy.FILTER_HQ2X, lastFilter);
+        assertEquals(ThermalPolicy.AUDIO_LOW_LATENCY, lastAudio);
+        assertEquals(4, changes);
+    }
+
+    @Test
+    public void heatingDuringCooldownRestartsIt() {
+        source.report(ThermalPolicy.STATUS_SEVERE, Float.NaN, 0);
+        source.report(STATUS_NONE, Float.NaN, 1000);
+        source.report(ThermalPolicy.STATUS_SEVERE, Float.NaN, 2000);
+        source.report(STATUS_NONE, Float.NaN, 3000);
+        source.report(STATUS_NONE, Float.NaN, 1000 + ThermalPolicy.COOL_DOWN_MILLIS);
+        assertEquals(ThermalPolicy.TIER_LOW, policy.tier());
+        source.report(STATUS_NONE, Float.NaN, 3000 + ThermalPolicy.COOL_DOWN_MILLIS);
+        assertEquals(ThermalPolicy.TIER_REDUCED, policy.tier());
+    }
+}